@@ -0,0 +1,176 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/** Recordings to benchmark against. */
+final class Recordings {
+
+    static final String BUNDLED_SAMPLE = "sample";
+    static final String SYNTHETIC = "synthetic";
+
+    private static final long SEED = 0x5eed;
+
+    private Recordings() {}
+
+    /**
+     * @param name {@link #BUNDLED_SAMPLE} for the sample recording used by the unit tests, {@link
+     *     #SYNTHETIC} for a recording of a generated workload, or otherwise the path of a recording
+     *     file
+     */
+    static byte[] load(String name, Duration syntheticDuration) throws Exception {
+        switch (name) {
+            case BUNDLED_SAMPLE:
+                try (InputStream is =
+                        Recordings.class.getResourceAsStream("/profiling_sample.jfr")) {
+                    return is.readAllBytes();
+                }
+            case SYNTHETIC:
+                return synthetic(syntheticDuration);
+            default:
+                return Files.readAllBytes(Paths.get(name));
+        }
+    }
+
+    /**
+     * A recording of a generated workload, which is recorded once and then kept in the directory of
+     * the benchmarks jar (its target directory) so that every trial, fork and later run analyzes
+     * the same events. The workload is seeded, but the events JFR samples from it still vary
+     * between recordings, so delete the file to record a new one. Set the {@code
+     * cryostat.benchmarks.synthetic} system property to the path of a recording file to use that
+     * file instead, which is recorded there first if it does not exist.
+     */
+    private static byte[] synthetic(Duration duration)
+            throws IOException, ParseException, InterruptedException {
+        Path file = syntheticFile(duration);
+        if (!Files.exists(file)) {
+            record(duration, file);
+        }
+        return Files.readAllBytes(file);
+    }
+
+    private static Path syntheticFile(Duration duration) {
+        String property = System.getProperty("cryostat.benchmarks.synthetic");
+        if (property != null) {
+            return Paths.get(property);
+        }
+        String name = String.format("synthetic-%ds.jfr", duration.toSeconds());
+        try {
+            Path jar =
+                    Paths.get(
+                            Recordings.class
+                                    .getProtectionDomain()
+                                    .getCodeSource()
+                                    .getLocation()
+                                    .toURI());
+            return jar.resolveSibling(name);
+        } catch (URISyntaxException | RuntimeException e) {
+            return Paths.get(System.getProperty("java.io.tmpdir"), name);
+        }
+    }
+
+    /**
+     * Records a workload which allocates, throws, contends on locks and sleeps across several
+     * threads with the "profile" settings, so that most rules have events to evaluate. Longer
+     * durations produce larger recordings with more chunks.
+     */
+    private static void record(Duration duration, Path file)
+            throws IOException, ParseException, InterruptedException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmp = Files.createTempFile(parent, "synthetic", ".jfr");
+        try (Recording recording = new Recording(Configuration.getConfiguration("profile"))) {
+            recording.setToDisk(true);
+            recording.start();
+            runWorkload(duration);
+            recording.stop();
+            recording.dump(tmp);
+            // concurrent forks may both record, but each only ever reads a complete file
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void runWorkload(Duration duration) throws InterruptedException {
+        long deadline = System.nanoTime() + duration.toNanos();
+        Object lock = new Object();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < Runtime.getRuntime().availableProcessors() + 2; i++) {
+            int seed = i;
+            Thread t =
+                    new Thread(
+                            () -> {
+                                Random random = new Random(SEED + seed);
+                                List<byte[]> retained = new ArrayList<>();
+                                while (System.nanoTime() < deadline) {
+                                    retained.add(new byte[random.nextInt(16 * 1024)]);
+                                    if (retained.size() > 4096) {
+                                        retained.clear();
+                                    }
+                                    if (random.nextInt(64) == 0) {
+                                        try {
+                                            throw new IllegalStateException("synthetic");
+                                        } catch (IllegalStateException e) {
+                                            retained.add(new byte[e.getMessage().length()]);
+                                        }
+                                    }
+                                    if (random.nextInt(256) == 0) {
+                                        synchronized (lock) {
+                                            spin(random.nextInt(100_000));
+                                        }
+                                    }
+                                    if (random.nextInt(4096) == 0) {
+                                        try {
+                                            Thread.sleep(1);
+                                        } catch (InterruptedException e) {
+                                            return;
+                                        }
+                                    }
+                                }
+                            },
+                            "synthetic-workload-" + i);
+            t.start();
+            threads.add(t);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+    }
+
+    private static double spin(int iterations) {
+        double d = 0;
+        for (int i = 0; i < iterations; i++) {
+            d += Math.sqrt(i);
+        }
+        return d;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.openjdk.jmc.flightrecorder.rules.DependsOn;
+import org.openjdk.jmc.flightrecorder.rules.IRule;
+import org.openjdk.jmc.flightrecorder.rules.RuleRegistry;
+
+import io.cryostat.core.reports.InterruptibleReportGenerator;
+import io.cryostat.core.reports.InterruptibleReportGenerator.AnalysisResult;
+import io.cryostat.core.reports.ParsedRecordingCache;
+import io.cryostat.core.util.RuleFilterParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link InterruptibleReportGenerator#generateEvalMapInterruptibly} end to end. Run with
+ * {@code mvn -Pbenchmarks package && java -jar benchmarks/target/benchmarks.jar}, optionally
+ * passing {@code -p recording=/path/to/recording.jfr} to benchmark a specific recording.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ReportGenerationBenchmark {
+
+    @Param({Recordings.BUNDLED_SAMPLE, Recordings.SYNTHETIC})
+    public String recording;
+
+    /** How long the synthetic workload is recorded for. */
+    @Param("60")
+    public int syntheticSeconds;
+
+    private byte[] bytes;
+    private ExecutorService executor;
+    private InterruptibleReportGenerator generator;
+    private InterruptibleReportGenerator cachingGenerator;
+    private Predicate<IRule> dependencyPath;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        bytes = Recordings.load(recording, Duration.ofSeconds(syntheticSeconds));
+        executor = Executors.newWorkStealingPool();
+        generator = new InterruptibleReportGenerator(executor);
+        cachingGenerator =
+                InterruptibleReportGenerator.Builder.create(executor)
+                        .parsedRecordingCache(new ParsedRecordingCache())
+                        .build();
+        // rules with dependencies, and the rules they depend on
+        RuleFilterParser.Builder filter = RuleFilterParser.Builder.create();
+        for (IRule rule : RuleRegistry.getRules()) {
+            DependsOn dependsOn = rule.getClass().getAnnotation(DependsOn.class);
+            if (dependsOn != null) {
+                filter.with(rule.getId());
+                for (IRule dependency : RuleRegistry.getRules()) {
+                    if (dependency.getClass().equals(dependsOn.value())) {
+                        filter.with(dependency.getId());
+                    }
+                }
+            }
+        }
+        dependencyPath = filter.build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        generator.close();
+        executor.shutdownNow();
+    }
+
+    /** Parse the recording and evaluate every rule. */
+    @Benchmark
+    public Map<String, AnalysisResult> fullReport() throws Exception {
+        return generate(generator, null, rule -> true);
+    }
+
+    /** Parse the recording without evaluating any rules. */
+    @Benchmark
+    public Map<String, AnalysisResult> parseOnly() throws Exception {
+        return generate(generator, null, rule -> false);
+    }
+
+    /** Evaluate every rule against a recording which has already been parsed. */
+    @Benchmark
+    public Map<String, AnalysisResult> evaluateOnly() throws Exception {
+        return generate(cachingGenerator, recording, rule -> true);
+    }
+
+    /** Parse the recording and evaluate only the rules of one topic. */
+    @Benchmark
+    public Map<String, AnalysisResult> singleTopic(TopicFilter filter) throws Exception {
+        return generate(generator, null, filter.predicate);
+    }
+
+    /** Parse the recording and evaluate only the rules which have or are dependencies. */
+    @Benchmark
+    public Map<String, AnalysisResult> dependencyPath() throws Exception {
+        return generate(generator, null, dependencyPath);
+    }
+
+    private Map<String, AnalysisResult> generate(
+            InterruptibleReportGenerator generator, String key, Predicate<IRule> predicate)
+            throws Exception {
+        return generator
+                .generateEvalMapInterruptibly(key, new ByteArrayInputStream(bytes), predicate)
+                .get();
+    }
+
+    @State(Scope.Benchmark)
+    public static class TopicFilter {
+        @Param({"garbage_collection", "heap", "java_application", "exceptions"})
+        public String topic;
+
+        Predicate<IRule> predicate;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            predicate = new RuleFilterParser().parse(topic);
+        }
+    }
+}
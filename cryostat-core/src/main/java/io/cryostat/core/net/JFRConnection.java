@@ -33,6 +33,7 @@ import io.cryostat.core.templates.TemplateService;
 import io.cryostat.libcryostat.JvmIdentifier;
 import io.cryostat.libcryostat.net.IDException;
 import io.cryostat.libcryostat.net.MBeanMetrics;
+import io.cryostat.libcryostat.net.MBeanMetricsProjection;
 import io.cryostat.libcryostat.sys.Clock;
 import io.cryostat.libcryostat.triggers.SmartTrigger;
 
@@ -94,6 +95,19 @@ public interface JFRConnection extends AutoCloseable {
                     IntrospectionException,
                     ReflectionException;
 
+    /**
+     * Read only the metrics selected by the projection. Implementations which cannot read a subset
+     * of the metrics may return all of them.
+     */
+    public default MBeanMetrics getMBeanMetrics(MBeanMetricsProjection projection)
+            throws ConnectionException,
+                    IOException,
+                    InstanceNotFoundException,
+                    IntrospectionException,
+                    ReflectionException {
+        return getMBeanMetrics();
+    }
+
     public boolean isConnected();
 
     public void connect() throws ConnectionException;
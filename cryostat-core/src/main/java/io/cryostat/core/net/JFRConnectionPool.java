@@ -0,0 +1,335 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.net;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.remote.JMXServiceURL;
+
+import org.openjdk.jmc.rjmx.common.ConnectionException;
+
+import io.cryostat.libcryostat.net.Credentials;
+import io.cryostat.libcryostat.sys.Clock;
+
+/**
+ * Keeps connections to JMX targets open between uses, so that operations across many targets do not
+ * each pay for a new RMI (and possibly TLS) handshake. Connections are leased to one user at a time
+ * and returned to the pool when the {@link Lease} is closed. Connections are pooled separately for
+ * each combination of service URL and credentials.
+ *
+ * <p>An idle connection is checked with {@link JFRConnection#isConnected()} before it is leased
+ * again, and is closed once it has been idle for longer than the idle timeout. Idle connections are
+ * only expired when the pool is used, or when {@link #evictIdle()} is called.
+ */
+public final class JFRConnectionPool implements AutoCloseable {
+
+    private final JFRConnectionToolkit toolkit;
+    private final Clock clock;
+    private final long idleTimeoutNanos;
+    private final int maxPerTarget;
+    private final long leaseTimeoutNanos;
+    private final Map<Target, Connections> pools = new HashMap<>();
+    private boolean closed;
+
+    /**
+     * @param maxPerTarget how many connections to a single target may be open at once, whether
+     *     leased or idle
+     * @param leaseTimeout how long {@link #lease} waits for a connection to be returned when the
+     *     target already has the maximum number of connections leased
+     */
+    public JFRConnectionPool(
+            JFRConnectionToolkit toolkit,
+            Duration idleTimeout,
+            int maxPerTarget,
+            Duration leaseTimeout) {
+        this(toolkit, new Clock(), idleTimeout, maxPerTarget, leaseTimeout);
+    }
+
+    JFRConnectionPool(
+            JFRConnectionToolkit toolkit,
+            Clock clock,
+            Duration idleTimeout,
+            int maxPerTarget,
+            Duration leaseTimeout) {
+        if (idleTimeout.isNegative() || idleTimeout.isZero()) {
+            throw new IllegalArgumentException("idleTimeout must be positive");
+        }
+        if (maxPerTarget < 1) {
+            throw new IllegalArgumentException("maxPerTarget must be positive");
+        }
+        if (leaseTimeout.isNegative()) {
+            throw new IllegalArgumentException("leaseTimeout must not be negative");
+        }
+        this.toolkit = Objects.requireNonNull(toolkit);
+        this.clock = Objects.requireNonNull(clock);
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.maxPerTarget = maxPerTarget;
+        this.leaseTimeoutNanos = leaseTimeout.toNanos();
+    }
+
+    public Lease lease(JMXServiceURL url) throws ConnectionException, InterruptedException {
+        return lease(url, null);
+    }
+
+    /**
+     * Lease an open connection to the target, reusing an idle one if possible.
+     *
+     * @throws ConnectionException if a new connection cannot be opened, or if the target's maximum
+     *     number of connections remain leased for longer than the lease timeout
+     */
+    public Lease lease(JMXServiceURL url, Credentials credentials)
+            throws ConnectionException, InterruptedException {
+        Target target = new Target(url, credentials);
+        long deadline = clock.getMonotonicTime() + leaseTimeoutNanos;
+        while (true) {
+            List<JFRConnection> expired = new ArrayList<>();
+            JFRConnection idle;
+            synchronized (this) {
+                if (closed) {
+                    throw new IllegalStateException("Connection pool is closed");
+                }
+                expireIdle(expired);
+                Connections connections = pools.computeIfAbsent(target, t -> new Connections());
+                // reuse the most recently returned connection, so that surplus connections are
+                // left idle long enough to expire
+                IdleConnection entry = connections.idle.pollLast();
+                if (entry != null) {
+                    idle = entry.connection;
+                } else if (connections.size() < maxPerTarget) {
+                    idle = null;
+                } else {
+                    long remaining = deadline - clock.getMonotonicTime();
+                    if (remaining <= 0) {
+                        throw new ConnectionException(
+                                String.format(
+                                        "Timed out waiting for one of %d connections to %s",
+                                        maxPerTarget, url));
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    continue;
+                }
+                connections.leased++;
+            }
+            disconnectAll(expired);
+            if (idle != null) {
+                if (idle.isConnected()) {
+                    return new Lease(target, idle);
+                }
+                discard(target, idle);
+                continue;
+            }
+            JFRConnection connection = null;
+            try {
+                connection = toolkit.connect(url, credentials);
+                connection.connect();
+                return new Lease(target, connection);
+            } catch (ConnectionException | RuntimeException e) {
+                if (connection != null) {
+                    discard(target, connection);
+                } else {
+                    release(target);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /** Close connections which have been idle for longer than the idle timeout. */
+    public void evictIdle() {
+        List<JFRConnection> expired = new ArrayList<>();
+        synchronized (this) {
+            expireIdle(expired);
+        }
+        disconnectAll(expired);
+    }
+
+    public synchronized int getIdleConnections() {
+        return pools.values().stream().mapToInt(c -> c.idle.size()).sum();
+    }
+
+    public synchronized int getLeasedConnections() {
+        return pools.values().stream().mapToInt(c -> c.leased).sum();
+    }
+
+    /**
+     * Close all idle connections. Leased connections are closed as their leases are closed, and no
+     * further connections may be leased.
+     */
+    @Override
+    public void close() {
+        List<JFRConnection> idle = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (Connections connections : pools.values()) {
+                connections.idle.forEach(entry -> idle.add(entry.connection));
+                connections.idle.clear();
+            }
+            pools.values().removeIf(Connections::isEmpty);
+            notifyAll();
+        }
+        disconnectAll(idle);
+    }
+
+    private void giveBack(Target target, JFRConnection connection) {
+        if (!connection.isConnected()) {
+            discard(target, connection);
+            return;
+        }
+        synchronized (this) {
+            if (!closed) {
+                Connections connections = pools.get(target);
+                connections.leased--;
+                connections.idle.addLast(new IdleConnection(connection, clock.getMonotonicTime()));
+                notifyAll();
+                return;
+            }
+        }
+        discard(target, connection);
+    }
+
+    private void discard(Target target, JFRConnection connection) {
+        release(target);
+        connection.disconnect();
+    }
+
+    private synchronized void release(Target target) {
+        Connections connections = pools.get(target);
+        connections.leased--;
+        if (connections.isEmpty()) {
+            pools.remove(target);
+        }
+        notifyAll();
+    }
+
+    // must hold the pool's lock. Expired connections are disconnected by the caller after
+    // releasing it, since that may block on the network.
+    private void expireIdle(List<JFRConnection> expired) {
+        long now = clock.getMonotonicTime();
+        Iterator<Connections> it = pools.values().iterator();
+        while (it.hasNext()) {
+            Connections connections = it.next();
+            // idle connections are ordered by the time they were returned
+            while (!connections.idle.isEmpty()
+                    && now - connections.idle.peekFirst().returnedAt >= idleTimeoutNanos) {
+                expired.add(connections.idle.pollFirst().connection);
+            }
+            if (connections.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    private static void disconnectAll(List<JFRConnection> connections) {
+        connections.forEach(JFRConnection::disconnect);
+    }
+
+    /**
+     * A connection leased from the pool. The connection must not be closed or disconnected
+     * directly. Close the lease to return it.
+     */
+    public final class Lease implements AutoCloseable {
+        private final Target target;
+        private final JFRConnection connection;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean invalid;
+
+        private Lease(Target target, JFRConnection connection) {
+            this.target = target;
+            this.connection = connection;
+        }
+
+        public JFRConnection getConnection() {
+            return connection;
+        }
+
+        /** Close the connection when the lease is closed rather than returning it to the pool. */
+        public void invalidate() {
+            this.invalid = true;
+        }
+
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            if (invalid) {
+                discard(target, connection);
+            } else {
+                giveBack(target, connection);
+            }
+        }
+    }
+
+    private static final class Target {
+        private final JMXServiceURL url;
+        private final Credentials credentials;
+
+        Target(JMXServiceURL url, Credentials credentials) {
+            this.url = Objects.requireNonNull(url);
+            this.credentials = credentials;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Target)) {
+                return false;
+            }
+            Target other = (Target) o;
+            return url.equals(other.url) && Objects.equals(credentials, other.credentials);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(url, credentials);
+        }
+    }
+
+    private static final class Connections {
+        private final Deque<IdleConnection> idle = new ArrayDeque<>();
+        private int leased;
+
+        int size() {
+            return idle.size() + leased;
+        }
+
+        boolean isEmpty() {
+            return size() == 0;
+        }
+    }
+
+    private static final class IdleConnection {
+        private final JFRConnection connection;
+        private final long returnedAt;
+
+        IdleConnection(JFRConnection connection, long returnedAt) {
+            this.connection = connection;
+            this.returnedAt = returnedAt;
+        }
+    }
+}
@@ -18,7 +18,6 @@ package io.cryostat.core.net;
 import java.io.IOException;
 import java.lang.management.MemoryUsage;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,11 +25,14 @@ import java.util.Set;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import javax.management.Attribute;
 import javax.management.AttributeNotFoundException;
 import javax.management.InstanceNotFoundException;
 import javax.management.IntrospectionException;
+import javax.management.JMRuntimeException;
 import javax.management.MBeanAttributeInfo;
 import javax.management.MBeanException;
+import javax.management.MBeanInfo;
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
 import javax.management.ReflectionException;
@@ -38,6 +40,7 @@ import javax.management.openmbean.CompositeData;
 import javax.management.openmbean.TabularData;
 import javax.management.remote.JMXServiceURL;
 
+import org.openjdk.jmc.flightrecorder.configuration.IFlightRecorderService;
 import org.openjdk.jmc.rjmx.common.ConnectionException;
 import org.openjdk.jmc.rjmx.common.ConnectionToolkit;
 import org.openjdk.jmc.rjmx.common.IConnectionDescriptor;
@@ -62,6 +65,8 @@ import io.cryostat.core.templates.TemplateService;
 import io.cryostat.libcryostat.JvmIdentifier;
 import io.cryostat.libcryostat.net.IDException;
 import io.cryostat.libcryostat.net.MBeanMetrics;
+import io.cryostat.libcryostat.net.MBeanMetricsProjection;
+import io.cryostat.libcryostat.net.MBeanMetricsProjection.Bean;
 import io.cryostat.libcryostat.net.MemoryMetrics;
 import io.cryostat.libcryostat.net.OperatingSystemMetrics;
 import io.cryostat.libcryostat.net.RuntimeMetrics;
@@ -75,12 +80,30 @@ public class JFRJMXConnection implements JFRConnection {
 
     public static final int DEFAULT_PORT = 9091;
 
+    // Runtime attributes from which the JVM ID is computed
+    private static final Set<String> JVM_ID_ATTRIBUTES =
+            Set.of(
+                    "ClassPath",
+                    "Name",
+                    "InputArguments",
+                    "LibraryPath",
+                    "VmVendor",
+                    "VmVersion",
+                    "StartTime");
+
     protected final ClientWriter cw;
     protected final FileSystem fs;
     protected final Environment env;
     protected final FlightRecorderServiceFactory serviceFactory;
     protected final List<Runnable> closeListeners;
     protected final List<ServiceEntry<?>> serviceEntries;
+    // MBean metadata does not change while the target JVM is running, so it is kept until the
+    // connection is closed or re-established
+    private final Map<ObjectName, MBeanInfo> mbeanInfos = new HashMap<>();
+    // creating the service probes the target's Flight Recorder, so the service is reused for as
+    // long as the handle it was created for
+    private IFlightRecorderService flightRecorderService;
+    private IConnectionHandle flightRecorderServiceHandle;
     protected RJMXConnection rjmxConnection;
     protected IConnectionHandle handle;
     protected IConnectionDescriptor connectionDescriptor;
@@ -149,6 +172,16 @@ public class JFRJMXConnection implements JFRConnection {
         return new JmxFlightRecorderService(this);
     }
 
+    synchronized IFlightRecorderService getFlightRecorderService()
+            throws ConnectionException, IOException, ServiceNotAvailableException {
+        IConnectionHandle handle = getHandle();
+        if (flightRecorderService == null || flightRecorderServiceHandle != handle) {
+            flightRecorderService = serviceFactory.getServiceInstance(handle);
+            flightRecorderServiceHandle = handle;
+        }
+        return flightRecorderService;
+    }
+
     public TemplateService getTemplateService() {
         return new RemoteTemplateService(this);
     }
@@ -186,23 +219,13 @@ public class JFRJMXConnection implements JFRConnection {
         if (!isConnected()) {
             connect();
         }
-        List<String> attrNames =
-                new ArrayList<>(
-                        Arrays.asList(
-                                "ClassPath",
-                                "Name",
-                                "InputArguments",
-                                "LibraryPath",
-                                "VmVendor",
-                                "VmVersion",
-                                "StartTime"));
         try {
             return JvmIdentifier.from(
                     JvmIdentifier.getAgentId(this.rjmxConnection.getMBeanServer()),
                     new RuntimeMetrics(
                             getAttributeMap(
                                     ConnectionToolkit.RUNTIME_BEAN_NAME,
-                                    m -> attrNames.contains(m.getName()))));
+                                    m -> JVM_ID_ATTRIBUTES.contains(m.getName()))));
         } catch (ReflectionException | IntrospectionException | InstanceNotFoundException e) {
             throw new IDException(e);
         }
@@ -279,72 +302,147 @@ public class JFRJMXConnection implements JFRConnection {
         }
     }
 
-    private Map<String, Object> getAttributeMap(ObjectName beanName)
-            throws InstanceNotFoundException,
-                    IntrospectionException,
-                    ReflectionException,
-                    IOException {
-        return getAttributeMap(beanName, m -> true);
-    }
-
     private Map<String, Object> getAttributeMap(
             ObjectName beanName, Predicate<MBeanAttributeInfo> attrPredicate)
             throws InstanceNotFoundException,
                     IntrospectionException,
                     ReflectionException,
                     IOException {
-        Map<String, Object> attrMap = new HashMap<>();
-
-        var attrs = rjmxConnection.getMBeanInfo(beanName).getAttributes();
-
-        for (var attr : attrs) {
+        List<String> names = new ArrayList<>();
+        for (var attr : getMBeanInfo(beanName).getAttributes()) {
             if (attr.isReadable()
                     && !attr.getName().equals("ObjectName")
                     && attrPredicate.test(attr)) {
-                try {
-                    Object attrObject =
-                            this.rjmxConnection.getAttributeValue(
-                                    new MRI(Type.ATTRIBUTE, beanName, attr.getName()));
-                    attrMap.put(attr.getName(), parseObject(attrObject));
-                } catch (AttributeNotFoundException
-                        | InstanceNotFoundException
-                        | MBeanException
-                        | ReflectionException
-                        | IOException e) {
-                    cw.println(
-                            String.format(
-                                    "Could not read attribute: [%s], message: [%s]",
-                                    attr.getName(), e.getMessage()));
-                }
+                names.add(attr.getName());
+            }
+        }
+
+        Map<String, Object> attrMap = new HashMap<>();
+        if (names.isEmpty()) {
+            return attrMap;
+        }
+        // read all of the attributes in a single round trip. Attributes which could not be read
+        // are left out of the response, so those are retried individually to report the cause.
+        try {
+            for (Attribute attr :
+                    this.rjmxConnection
+                            .getMBeanServer()
+                            .getAttributes(beanName, names.toArray(new String[0]))
+                            .asList()) {
+                attrMap.put(attr.getName(), parseObject(attr.getValue()));
+            }
+        } catch (ReflectionException | IOException e) {
+            cw.println(
+                    String.format(
+                            "Could not read attributes of [%s], message: [%s]",
+                            beanName, e.getMessage()));
+        }
+        for (String name : names) {
+            if (attrMap.containsKey(name)) {
+                continue;
+            }
+            try {
+                Object attrObject =
+                        this.rjmxConnection.getAttributeValue(
+                                new MRI(Type.ATTRIBUTE, beanName, name));
+                attrMap.put(name, parseObject(attrObject));
+            } catch (AttributeNotFoundException
+                    | InstanceNotFoundException
+                    | MBeanException
+                    | ReflectionException
+                    | JMRuntimeException
+                    | IOException e) {
+                cw.println(
+                        String.format(
+                                "Could not read attribute: [%s], message: [%s]",
+                                name, e.getMessage()));
             }
         }
         return attrMap;
     }
 
+    private synchronized MBeanInfo getMBeanInfo(ObjectName beanName)
+            throws InstanceNotFoundException,
+                    IntrospectionException,
+                    ReflectionException,
+                    IOException {
+        MBeanInfo info = mbeanInfos.get(beanName);
+        if (info == null) {
+            info = rjmxConnection.getMBeanInfo(beanName);
+            mbeanInfos.put(beanName, info);
+        }
+        return info;
+    }
+
     public synchronized MBeanMetrics getMBeanMetrics()
             throws IOException,
                     InstanceNotFoundException,
                     IntrospectionException,
                     ReflectionException {
+        return getMBeanMetrics(MBeanMetricsProjection.ALL);
+    }
+
+    public synchronized MBeanMetrics getMBeanMetrics(MBeanMetricsProjection projection)
+            throws IOException,
+                    InstanceNotFoundException,
+                    IntrospectionException,
+                    ReflectionException {
         if (!isConnected()) {
             connect();
         }
 
-        Map<String, Object> runtimeMap = getAttributeMap(ConnectionToolkit.RUNTIME_BEAN_NAME);
-        Map<String, Object> memoryMap = getAttributeMap(ConnectionToolkit.MEMORY_BEAN_NAME);
-        Map<String, Object> threadMap = getAttributeMap(ConnectionToolkit.THREAD_BEAN_NAME);
-        Map<String, Object> osMap = getAttributeMap(ConnectionToolkit.OPERATING_SYSTEM_BEAN_NAME);
+        Map<String, Object> runtimeMap =
+                getAttributeMap(
+                        ConnectionToolkit.RUNTIME_BEAN_NAME,
+                        projection,
+                        Bean.RUNTIME,
+                        name -> projection.includesJvmId() && JVM_ID_ATTRIBUTES.contains(name));
+        Map<String, Object> memoryMap =
+                getAttributeMap(
+                        ConnectionToolkit.MEMORY_BEAN_NAME, projection, Bean.MEMORY, name -> false);
+        Map<String, Object> threadMap =
+                getAttributeMap(
+                        ConnectionToolkit.THREAD_BEAN_NAME, projection, Bean.THREAD, name -> false);
+        Map<String, Object> osMap =
+                getAttributeMap(
+                        ConnectionToolkit.OPERATING_SYSTEM_BEAN_NAME,
+                        projection,
+                        Bean.OPERATING_SYSTEM,
+                        name -> false);
 
         RuntimeMetrics runtimeMetrics = new RuntimeMetrics(runtimeMap);
+        String jvmId = null;
+        if (projection.includesJvmId()) {
+            jvmId =
+                    JvmIdentifier.from(
+                                    JvmIdentifier.getAgentId(this.rjmxConnection.getMBeanServer()),
+                                    runtimeMetrics)
+                            .getHash();
+        }
         return new MBeanMetrics(
                 runtimeMetrics,
                 new MemoryMetrics(memoryMap),
                 new ThreadMetrics(threadMap),
                 new OperatingSystemMetrics(osMap),
-                JvmIdentifier.from(
-                                JvmIdentifier.getAgentId(this.rjmxConnection.getMBeanServer()),
-                                runtimeMetrics)
-                        .getHash());
+                jvmId);
+    }
+
+    private Map<String, Object> getAttributeMap(
+            ObjectName beanName,
+            MBeanMetricsProjection projection,
+            Bean bean,
+            Predicate<String> alsoRequired)
+            throws InstanceNotFoundException,
+                    IntrospectionException,
+                    ReflectionException,
+                    IOException {
+        // the JVM ID only needs identifying attributes of the runtime bean
+        if (!projection.includes(bean) && !(bean == Bean.RUNTIME && projection.includesJvmId())) {
+            return Map.of();
+        }
+        return getAttributeMap(
+                beanName,
+                m -> projection.includes(bean, m.getName()) || alsoRequired.test(m.getName()));
     }
 
     public synchronized boolean isV1() throws ConnectionException, IOException {
@@ -363,6 +461,9 @@ public class JFRJMXConnection implements JFRConnection {
         if (isConnected()) {
             return;
         }
+        this.mbeanInfos.clear();
+        this.flightRecorderService = null;
+        this.flightRecorderServiceHandle = null;
         this.rjmxConnection = attemptConnect(connectionDescriptor);
         this.handle =
                 new DefaultConnectionHandle(
@@ -384,6 +485,9 @@ public class JFRJMXConnection implements JFRConnection {
     }
 
     public synchronized void disconnect() {
+        this.mbeanInfos.clear();
+        this.flightRecorderService = null;
+        this.flightRecorderServiceHandle = null;
         try {
             if (this.handle != null) {
                 this.handle.close();
@@ -35,7 +35,6 @@ import org.openjdk.jmc.flightrecorder.configuration.events.IEventTypeID;
 import org.openjdk.jmc.flightrecorder.configuration.events.IEventTypeInfo;
 import org.openjdk.jmc.rjmx.common.ConnectionException;
 import org.openjdk.jmc.rjmx.common.ServiceNotAvailableException;
-import org.openjdk.jmc.rjmx.common.services.jfr.internal.FlightRecorderServiceFactory;
 
 import io.cryostat.core.EventOptionsBuilder;
 import io.cryostat.core.EventOptionsBuilder.EventOptionException;
@@ -60,8 +59,7 @@ public class JmxFlightRecorderService implements CryostatFlightRecorderService {
             if (!conn.isConnected()) {
                 conn.connect();
             }
-            IFlightRecorderService service =
-                    new FlightRecorderServiceFactory().getServiceInstance(conn.getHandle());
+            IFlightRecorderService service = conn.getFlightRecorderService();
             if (service == null || !conn.isConnected()) {
                 throw new ConnectionException(
                         String.format(
@@ -0,0 +1,34 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.reports;
+
+import java.util.Optional;
+
+import io.cryostat.core.reports.InterruptibleReportGenerator.AnalysisResult;
+
+/**
+ * Stores the results of individual rule evaluations so that reports for recordings which have
+ * already been analyzed can be produced without loading the recording again. Keys identify the
+ * recording's contents, the rule, the version of the rule's implementation and the rule's
+ * configuration. Results of rules whose version is not known are not stored. Implementations must
+ * be safe for use from several threads at once.
+ */
+public interface AnalysisResultStore {
+
+    Optional<AnalysisResult> get(String key);
+
+    void put(String key, AnalysisResult result);
+}
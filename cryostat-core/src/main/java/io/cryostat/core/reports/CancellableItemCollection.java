@@ -0,0 +1,150 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.reports;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.function.Predicate;
+
+import org.openjdk.jmc.common.item.IAggregator;
+import org.openjdk.jmc.common.item.IItem;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.IItemConsumer;
+import org.openjdk.jmc.common.item.IItemFilter;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.common.item.IType;
+import org.openjdk.jmc.common.item.ItemIterableToolkit;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.common.unit.IRange;
+
+/**
+ * Wraps the items given to a rule so that the rule's loops over them stop once the evaluating
+ * thread has been interrupted, as it is when the report is cancelled or the rule runs out of time.
+ * JMC rules do not check for interruption themselves, so without this an abandoned evaluation keeps
+ * its executor thread busy until it completes. The interrupt status is checked every {@value
+ * #CHECK_INTERVAL} items, and {@link CancellationException} is thrown once it is set.
+ */
+final class CancellableItemCollection implements IItemCollection {
+
+    static final int CHECK_INTERVAL = 1024;
+
+    private final IItemCollection delegate;
+
+    private CancellableItemCollection(IItemCollection delegate) {
+        this.delegate = delegate;
+    }
+
+    static IItemCollection wrap(IItemCollection items) {
+        return items instanceof CancellableItemCollection
+                ? items
+                : new CancellableItemCollection(items);
+    }
+
+    @Override
+    public Iterator<IItemIterable> iterator() {
+        Iterator<IItemIterable> iterables = delegate.iterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return iterables.hasNext();
+            }
+
+            @Override
+            public IItemIterable next() {
+                checkInterrupted();
+                return new CancellableItemIterable(iterables.next());
+            }
+        };
+    }
+
+    @Override
+    public IItemCollection apply(IItemFilter filter) {
+        return new CancellableItemCollection(delegate.apply(filter));
+    }
+
+    @Override
+    public <V, C extends IItemConsumer<C>> V getAggregate(IAggregator<V, C> aggregator) {
+        // aggregate over the wrapped iterables, so that long aggregations are also interruptible
+        return ItemIterableToolkit.aggregate(
+                aggregator, delegate.stream().map(CancellableItemIterable::new));
+    }
+
+    @Override
+    public boolean hasItems() {
+        return delegate.hasItems();
+    }
+
+    @Override
+    public Set<IRange<IQuantity>> getUnfilteredTimeRanges() {
+        return delegate.getUnfilteredTimeRanges();
+    }
+
+    private static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Rule evaluation interrupted");
+        }
+    }
+
+    private static final class CancellableItemIterable implements IItemIterable {
+        private final IItemIterable delegate;
+
+        CancellableItemIterable(IItemIterable delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public IType<IItem> getType() {
+            return delegate.getType();
+        }
+
+        @Override
+        public boolean hasItems() {
+            return delegate.hasItems();
+        }
+
+        @Override
+        public long getItemCount() {
+            return delegate.getItemCount();
+        }
+
+        @Override
+        public IItemIterable apply(Predicate<IItem> predicate) {
+            return new CancellableItemIterable(delegate.apply(predicate));
+        }
+
+        @Override
+        public Iterator<IItem> iterator() {
+            Iterator<IItem> items = delegate.iterator();
+            return new Iterator<>() {
+                private int count;
+
+                @Override
+                public boolean hasNext() {
+                    return items.hasNext();
+                }
+
+                @Override
+                public IItem next() {
+                    if (++count % CHECK_INTERVAL == 0) {
+                        checkInterrupted();
+                    }
+                    return items.next();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.reports;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Passes through only those chunks of a JFR recording whose time span overlaps a window. Each
+ * chunk's header records its start time, duration and size, so chunks outside of the window are
+ * skipped over in the underlying stream without being decoded or buffered.
+ */
+final class ChunkWindowInputStream extends FilterInputStream {
+
+    static final int HEADER_SIZE = 68;
+    private static final byte[] MAGIC = {'F', 'L', 'R', 0};
+    private static final int CHUNK_SIZE_OFFSET = 8;
+    private static final int START_NANOS_OFFSET = 32;
+    private static final int DURATION_NANOS_OFFSET = 40;
+
+    private final long windowStartNanos;
+    private final long windowEndNanos;
+    private final byte[] header = new byte[HEADER_SIZE];
+    private final byte[] single = new byte[1];
+    private int headerPosition = HEADER_SIZE;
+    private long chunkRemaining;
+    private boolean eof;
+
+    /**
+     * @param windowStartNanos start of the window, inclusive, in nanoseconds since the epoch
+     * @param windowEndNanos end of the window, inclusive, in nanoseconds since the epoch
+     */
+    ChunkWindowInputStream(InputStream in, long windowStartNanos, long windowEndNanos) {
+        super(Objects.requireNonNull(in));
+        if (windowEndNanos < windowStartNanos) {
+            throw new IllegalArgumentException("window ends before it starts");
+        }
+        this.windowStartNanos = windowStartNanos;
+        this.windowEndNanos = windowEndNanos;
+    }
+
+    /**
+     * @return true if any chunk of the recording overlaps the window. Skips ahead to the first such
+     *     chunk, if not already within one.
+     */
+    boolean hasSelectedChunk() throws IOException {
+        return nextChunk();
+    }
+
+    @Override
+    public int read() throws IOException {
+        int n = read(single, 0, 1);
+        return n < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextChunk()) {
+            return -1;
+        }
+        if (headerPosition < HEADER_SIZE) {
+            int n = Math.min(len, HEADER_SIZE - headerPosition);
+            System.arraycopy(header, headerPosition, b, off, n);
+            headerPosition += n;
+            return n;
+        }
+        int n = in.read(b, off, (int) Math.min(len, chunkRemaining));
+        if (n < 0) {
+            eof = true;
+            return -1;
+        }
+        chunkRemaining -= n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // skipping across chunk boundaries is never needed by the parser, so only the current chunk
+        // is skipped within
+        if (n <= 0 || !nextChunk()) {
+            return 0;
+        }
+        if (headerPosition < HEADER_SIZE) {
+            int skipped = (int) Math.min(n, HEADER_SIZE - headerPosition);
+            headerPosition += skipped;
+            return skipped;
+        }
+        long skipped = in.skip(Math.min(n, chunkRemaining));
+        chunkRemaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (headerPosition < HEADER_SIZE) {
+            return HEADER_SIZE - headerPosition;
+        }
+        return (int) Math.min(in.available(), chunkRemaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readlimit) {}
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Advance to the next chunk overlapping the window, unless the current one has data left.
+     *
+     * @return false if there are no more such chunks
+     */
+    private boolean nextChunk() throws IOException {
+        while (!eof && headerPosition == HEADER_SIZE && chunkRemaining == 0) {
+            if (!readHeader(in, header)) {
+                eof = true;
+                break;
+            }
+            long chunkSize = chunkSize(header);
+            long startNanos = startNanos(header);
+            long durationNanos = durationNanos(header);
+            if (chunkSize < HEADER_SIZE) {
+                // a chunk which is still being written does not have its size yet, so it extends
+                // to the end of the stream and is always passed through
+                headerPosition = 0;
+                chunkRemaining = Long.MAX_VALUE;
+            } else if (startNanos <= windowEndNanos
+                    && startNanos + Math.max(0, durationNanos) >= windowStartNanos) {
+                headerPosition = 0;
+                chunkRemaining = chunkSize - HEADER_SIZE;
+            } else {
+                skipFully(in, chunkSize - HEADER_SIZE);
+            }
+        }
+        return !eof;
+    }
+
+    /**
+     * Read a chunk header from the stream.
+     *
+     * @return false if the stream is already at its end
+     * @throws IOException if the stream does not start with a complete chunk header
+     */
+    static boolean readHeader(InputStream in, byte[] header) throws IOException {
+        int read = 0;
+        while (read < HEADER_SIZE) {
+            int n = in.read(header, read, HEADER_SIZE - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        if (read == 0) {
+            return false;
+        }
+        if (read < HEADER_SIZE || !Arrays.equals(header, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) {
+            throw new IOException("Not a JFR chunk header");
+        }
+        return true;
+    }
+
+    /**
+     * @return the size of the chunk including its header, or less than {@link #HEADER_SIZE} if the
+     *     chunk is still being written
+     */
+    static long chunkSize(byte[] header) {
+        return ByteBuffer.wrap(header).getLong(CHUNK_SIZE_OFFSET);
+    }
+
+    static long startNanos(byte[] header) {
+        return ByteBuffer.wrap(header).getLong(START_NANOS_OFFSET);
+    }
+
+    static long durationNanos(byte[] header) {
+        return ByteBuffer.wrap(header).getLong(DURATION_NANOS_OFFSET);
+    }
+
+    static void skipFully(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                // some streams cannot skip, or only skip up to what is buffered
+                if (in.read() < 0) {
+                    throw new IOException("Recording ends within a chunk");
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.reports;
+
+import java.util.Arrays;
+
+import org.openjdk.jmc.common.item.Aggregators;
+import org.openjdk.jmc.common.item.IAggregator;
+import org.openjdk.jmc.common.item.IAttribute;
+import org.openjdk.jmc.common.item.IItem;
+import org.openjdk.jmc.common.item.IItemConsumer;
+import org.openjdk.jmc.common.item.IMemberAccessor;
+import org.openjdk.jmc.common.item.IType;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.common.unit.UnitLookup;
+
+/**
+ * Mergeable log-linear histogram of durations, in the style of an HDR histogram. Values are
+ * recorded in nanoseconds; every power-of-two range is split into {@value #HALF_SUB_BUCKETS} linear
+ * sub-buckets, so reported percentiles are within 1% of the recorded values. The exact count, sum,
+ * minimum and maximum are tracked alongside the buckets, so a single pass over the events yields
+ * all of the summary statistics.
+ */
+final class DurationHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+    private long[] counts = new long[SUB_BUCKETS];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    /**
+     * An aggregator that collects the values of the given duration attribute into a histogram, for
+     * use with {@link org.openjdk.jmc.common.item.IItemCollection#getAggregate(IAggregator)}.
+     * Aggregates to {@code null} if no items have the attribute.
+     */
+    static IAggregator<DurationHistogram, ?> aggregator(IAttribute<IQuantity> attribute) {
+        return new Aggregators.MergingAggregator<DurationHistogram, Consumer>(
+                attribute.getName(), attribute.getDescription(), UnitLookup.UNKNOWN) {
+            @Override
+            public boolean acceptType(IType<IItem> type) {
+                return attribute.getAccessor(type) != null;
+            }
+
+            @Override
+            public Consumer newItemConsumer(IType<IItem> type) {
+                return new Consumer(attribute.getAccessor(type));
+            }
+
+            @Override
+            public DurationHistogram getValue(Consumer consumer) {
+                return consumer == null || consumer.histogram.count == 0
+                        ? null
+                        : consumer.histogram;
+            }
+        };
+    }
+
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        int index = indexOf(value);
+        if (index >= counts.length) {
+            counts = Arrays.copyOf(counts, index + 1);
+        }
+        counts[index]++;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    DurationHistogram merge(DurationHistogram other) {
+        if (other.counts.length > counts.length) {
+            counts = Arrays.copyOf(counts, other.counts.length);
+        }
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        return this;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    IQuantity getMin() {
+        return count == 0 ? null : UnitLookup.NANOSECOND.quantity(min);
+    }
+
+    IQuantity getMax() {
+        return count == 0 ? null : UnitLookup.NANOSECOND.quantity(max);
+    }
+
+    IQuantity getAverage() {
+        return count == 0 ? null : UnitLookup.NANOSECOND.quantity((double) sum / count);
+    }
+
+    /**
+     * @param percentile in the range [0, 100]
+     */
+    IQuantity getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException(Double.toString(percentile));
+        }
+        if (count == 0) {
+            return null;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                long value = Math.min(max, Math.max(min, midpointOf(i)));
+                return UnitLookup.NANOSECOND.quantity(value);
+            }
+        }
+        return UnitLookup.NANOSECOND.quantity(max);
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long midpointOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / HALF_SUB_BUCKETS - 1;
+        long lower = ((long) (index % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS)) << shift;
+        return lower + ((1L << shift) - 1) / 2;
+    }
+
+    private static final class Consumer implements IItemConsumer<Consumer> {
+        private final IMemberAccessor<IQuantity, IItem> accessor;
+        private final DurationHistogram histogram = new DurationHistogram();
+
+        Consumer(IMemberAccessor<IQuantity, IItem> accessor) {
+            this.accessor = accessor;
+        }
+
+        @Override
+        public void consume(IItem item) {
+            IQuantity value = accessor.getMember(item);
+            if (value != null) {
+                histogram.record(value.clampedLongValueIn(UnitLookup.NANOSECOND));
+            }
+        }
+
+        @Override
+        public Consumer merge(Consumer other) {
+            histogram.merge(other.histogram);
+            return this;
+        }
+    }
+}
@@ -15,217 +15,1318 @@
  */
 package io.cryostat.core.reports;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 import java.util.function.Predicate;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
 import java.util.stream.Collectors;
 
 import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.ItemCollectionToolkit;
+import org.openjdk.jmc.common.item.ItemFilters;
 import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.common.unit.IRange;
+import org.openjdk.jmc.common.unit.UnitLookup;
 import org.openjdk.jmc.common.util.IPreferenceValueProvider;
 import org.openjdk.jmc.common.util.Pair;
+import org.openjdk.jmc.common.util.TypedPreference;
 import org.openjdk.jmc.flightrecorder.CouldNotLoadRecordingException;
+import org.openjdk.jmc.flightrecorder.JfrAttributes;
 import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
+import org.openjdk.jmc.flightrecorder.parser.IParserExtension;
+import org.openjdk.jmc.flightrecorder.parser.ParserExtensionRegistry;
+import org.openjdk.jmc.flightrecorder.parser.filter.FilterExtension;
+import org.openjdk.jmc.flightrecorder.parser.filter.OnLoadFilters;
 import org.openjdk.jmc.flightrecorder.rules.DependsOn;
 import org.openjdk.jmc.flightrecorder.rules.IRecordingSetting;
 import org.openjdk.jmc.flightrecorder.rules.IResult;
+import org.openjdk.jmc.flightrecorder.rules.IResultValueProvider;
 import org.openjdk.jmc.flightrecorder.rules.IRule;
 import org.openjdk.jmc.flightrecorder.rules.ResultBuilder;
 import org.openjdk.jmc.flightrecorder.rules.ResultProvider;
 import org.openjdk.jmc.flightrecorder.rules.ResultToolkit;
 import org.openjdk.jmc.flightrecorder.rules.RuleRegistry;
 import org.openjdk.jmc.flightrecorder.rules.Severity;
+import org.openjdk.jmc.flightrecorder.rules.TypedCollectionResult;
 import org.openjdk.jmc.flightrecorder.rules.TypedResult;
 import org.openjdk.jmc.flightrecorder.rules.util.RulesToolkit;
 
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.apache.commons.io.input.CountingInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class InterruptibleReportGenerator {
+public class InterruptibleReportGenerator implements AutoCloseable {
 
-    private final ExecutorService qThread = Executors.newCachedThreadPool();
+    /** A recording size which is not known in advance. */
+    public static final long UNKNOWN_SIZE = -1;
+
+    public static final long DEFAULT_MAX_OFF_HEAP_BYTES = 512L * 1024 * 1024;
+
+    // Environment and configuration event types, and periodic samples of CPU load, context
+    // switches and the heap, which many rules consult without declaring them as required events.
+    // These are never pruned.
+    private static final Set<String> ALWAYS_LOADED_EVENT_TYPES =
+            Set.of(
+                    "jdk.ActiveRecording",
+                    "jdk.ActiveSetting",
+                    "jdk.CPUInformation",
+                    "jdk.CPULoad",
+                    "jdk.CodeCacheConfiguration",
+                    "jdk.CompilerConfiguration",
+                    "jdk.ContainerConfiguration",
+                    "jdk.GCConfiguration",
+                    "jdk.GCHeapConfiguration",
+                    "jdk.GCHeapSummary",
+                    "jdk.GCSurvivorConfiguration",
+                    "jdk.GCTLABConfiguration",
+                    "jdk.InitialEnvironmentVariable",
+                    "jdk.InitialSystemProperty",
+                    "jdk.JVMInformation",
+                    "jdk.OSInformation",
+                    "jdk.PhysicalMemory",
+                    "jdk.SystemProcess",
+                    "jdk.ThreadCPULoad",
+                    "jdk.ThreadContextSwitchRate",
+                    "jdk.VirtualizationInformation",
+                    "jdk.YoungGenerationConfiguration");
+    // Environment and configuration event types, which JFR writes once per chunk, usually at its
+    // start. Rules need these to interpret the events of a chunk, so they are kept when the chunk
+    // is windowed even if they were written outside of the window.
+    private static final Set<String> PER_CHUNK_EVENT_TYPES =
+            Set.of(
+                    "jdk.ActiveRecording",
+                    "jdk.ActiveSetting",
+                    "jdk.CPUInformation",
+                    "jdk.CodeCacheConfiguration",
+                    "jdk.CompilerConfiguration",
+                    "jdk.ContainerConfiguration",
+                    "jdk.GCConfiguration",
+                    "jdk.GCHeapConfiguration",
+                    "jdk.GCSurvivorConfiguration",
+                    "jdk.GCTLABConfiguration",
+                    "jdk.InitialEnvironmentVariable",
+                    "jdk.InitialSystemProperty",
+                    "jdk.JVMInformation",
+                    "jdk.OSInformation",
+                    "jdk.PhysicalMemory",
+                    "jdk.VirtualizationInformation",
+                    "jdk.YoungGenerationConfiguration");
+    // Event types which are read by a rule, but which it does not declare as required and which
+    // are not in ALWAYS_LOADED_EVENT_TYPES
+    private static final Map<String, Set<String>> UNDECLARED_EVENT_TYPES =
+            Map.of("ContextSwitch", Set.of("jdk.JavaMonitorEnter"));
+
+    private static final String LIBRARY_VERSION = libraryVersion();
+    private static final ClassValue<Optional<String>> RULE_VERSIONS =
+            new ClassValue<>() {
+                @Override
+                protected Optional<String> computeValue(Class<?> type) {
+                    return Optional.ofNullable(codeVersion(type));
+                }
+            };
+
+    private final ExecutorService qThread;
     private final ExecutorService executor;
+    private final ExecutorService parsingExecutor;
+    private final ParsedRecordingCache parsedRecordingCache;
+    private final Duration ruleTimeout;
+    private final Duration reportTimeout;
+    private final boolean pruneEventTypes;
+    private final OffHeapItemCollection.Arena offHeapArena;
+    private final AnalysisResultStore resultStore;
+    private final ReportAdmissionController admissionController;
+    private final ReportMetricsListener metricsListener;
+    private final ScheduledExecutorService timeoutScheduler;
     private final List<IRule> rules = new ArrayList<>();
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     public InterruptibleReportGenerator(ExecutorService executor) {
-        this.executor = executor;
-        this.rules.addAll(RuleRegistry.getRules());
-        this.rules.add(new QuarkusRestRule());
+        this(executor, executor);
+    }
+
+    public InterruptibleReportGenerator(ExecutorService executor, ExecutorService parsingExecutor) {
+        this(Builder.create(executor).parsingExecutor(parsingExecutor));
+    }
+
+    private InterruptibleReportGenerator(Builder builder) {
+        this.executor = builder.executor;
+        Optional<ExecutorService> virtualThreads = Optional.empty();
+        if (builder.virtualThreads) {
+            virtualThreads = VirtualThreads.newThreadPerTaskExecutor();
+            if (virtualThreads.isEmpty()) {
+                logger.info(
+                        "Virtual threads are not supported by this runtime, using platform threads"
+                                + " for report orchestration");
+            }
+        }
+        this.qThread = virtualThreads.orElseGet(Executors::newCachedThreadPool);
+        if (builder.parsingExecutor != null) {
+            this.parsingExecutor = builder.parsingExecutor;
+        } else {
+            this.parsingExecutor = virtualThreads.orElse(executor);
+        }
+        this.parsedRecordingCache = builder.parsedRecordingCache;
+        this.ruleTimeout = builder.ruleTimeout;
+        this.reportTimeout = builder.reportTimeout;
+        this.pruneEventTypes = builder.pruneEventTypes;
+        this.offHeapArena =
+                builder.offHeapEventStorage
+                        ? new OffHeapItemCollection.Arena(builder.maxOffHeapBytes)
+                        : null;
+        this.resultStore = builder.resultStore;
+        this.admissionController = builder.admissionController;
+        this.metricsListener = builder.metricsListener;
+        if (ruleTimeout != null || reportTimeout != null) {
+            this.timeoutScheduler = TimeoutScheduler.INSTANCE;
+        } else {
+            this.timeoutScheduler = null;
+        }
+        if (builder.rules != null) {
+            this.rules.addAll(builder.rules);
+        } else {
+            this.rules.addAll(RuleRegistry.getRules());
+            this.rules.add(new QuarkusRestRule());
+        }
+    }
+
+    /**
+     * Shut down the threads which this generator dispatches rule evaluations on. Executors which
+     * were passed in are not shut down. Reports which are still in progress may fail.
+     */
+    @Override
+    public void close() {
+        qThread.shutdown();
+    }
+
+    OffHeapItemCollection.Arena getOffHeapArena() {
+        return offHeapArena;
     }
 
     public Future<Map<String, AnalysisResult>> generateEvalMapInterruptibly(
             InputStream recording, Predicate<IRule> predicate) {
+        return generateEvalMapInterruptibly(null, recording, predicate);
+    }
+
+    /**
+     * @param recordingKey identifies the recording's contents for the {@link ParsedRecordingCache}
+     *     and {@link AnalysisResultStore}, if configured. If the key is already cached or being
+     *     parsed, or all the results are stored, then the recording stream is closed without being
+     *     read. May be null to always parse the stream.
+     */
+    public Future<Map<String, AnalysisResult>> generateEvalMapInterruptibly(
+            String recordingKey, InputStream recording, Predicate<IRule> predicate) {
+        return generateEvalMapInterruptibly(recordingKey, recording, predicate, (id, r) -> {});
+    }
+
+    /**
+     * @param resultListener called with the rule ID and result of each rule as soon as that rule's
+     *     evaluation completes, so that results of quick rules can be used without waiting for the
+     *     whole report. All listener calls happen before the returned future completes. Listeners
+     *     may be called concurrently from executor threads.
+     */
+    public Future<Map<String, AnalysisResult>> generateEvalMapInterruptibly(
+            String recordingKey,
+            InputStream recording,
+            Predicate<IRule> predicate,
+            BiConsumer<String, AnalysisResult> resultListener) {
+        return generateEvalMapInterruptibly(
+                recordingKey, recording, predicate, null, resultListener);
+    }
+
+    /**
+     * Analyze only the part of a recording within a time window, such as the last few minutes of a
+     * long disk recording. Chunks which end before or start after the window are skipped using
+     * their headers, without being decoded, and events outside of the window are excluded from the
+     * remaining chunks. The environment and configuration events of the remaining chunks are kept,
+     * since rules need them to interpret the recording.
+     *
+     * @param window the range of event times to analyze, inclusive. May be null to analyze the
+     *     whole recording.
+     */
+    public Future<Map<String, AnalysisResult>> generateEvalMapInterruptibly(
+            String recordingKey,
+            InputStream recording,
+            Predicate<IRule> predicate,
+            IRange<IQuantity> window,
+            BiConsumer<String, AnalysisResult> resultListener) {
+        return generateEvalMapInterruptibly(
+                recordingKey, recording, UNKNOWN_SIZE, predicate, window, resultListener);
+    }
+
+    /**
+     * @param recordingSize the size of the recording in bytes, such as the Content-Length of the
+     *     response it is streamed from, for the {@link ReportAdmissionController}
+     */
+    public Future<Map<String, AnalysisResult>> generateEvalMapInterruptibly(
+            String recordingKey,
+            InputStream recording,
+            long recordingSize,
+            Predicate<IRule> predicate) {
+        return generateEvalMapInterruptibly(
+                recordingKey, recording, recordingSize, predicate, null, (id, r) -> {});
+    }
+
+    /**
+     * @param recordingSize the size of the recording in bytes, such as the Content-Length of the
+     *     response it is streamed from, for the {@link ReportAdmissionController}. May be {@link
+     *     #UNKNOWN_SIZE}, in which case the size of local files is still determined, and other
+     *     recordings are charged the controller's default size.
+     * @see #generateEvalMapInterruptibly(String, InputStream, Predicate, IRange, BiConsumer)
+     */
+    public Future<Map<String, AnalysisResult>> generateEvalMapInterruptibly(
+            String recordingKey,
+            InputStream recording,
+            long recordingSize,
+            Predicate<IRule> predicate,
+            IRange<IQuantity> window,
+            BiConsumer<String, AnalysisResult> resultListener) {
         Objects.requireNonNull(recording);
         Objects.requireNonNull(predicate);
-        return qThread.submit(
-                () -> {
+        Objects.requireNonNull(resultListener);
+        // results for a window of a recording are stored separately from those for the whole
+        // recording, but the parsed recording may still be shared through the cache
+        String resultsKey =
+                window == null || recordingKey == null
+                        ? recordingKey
+                        : String.format(
+                                "%s[%d,%d]",
+                                recordingKey,
+                                window.getStart().clampedLongValueIn(UnitLookup.EPOCH_NS),
+                                window.getEnd().clampedLongValueIn(UnitLookup.EPOCH_NS));
+        if (resultStore != null && resultsKey != null) {
+            Map<String, AnalysisResult> stored = storedResults(resultsKey, predicate);
+            if (stored != null) {
+                closeQuietly(recording);
+                stored.forEach((id, result) -> notify(resultListener, id, result));
+                return CompletableFuture.completedFuture(stored);
+            }
+        }
+        // Parsing is the expensive part, so it runs on the parsing executor and several
+        // recordings may be parsed at once. The qThread is only used to dispatch rule evaluations
+        // once the parsed items are available.
+        StageTracker stages = new StageTracker();
+        // IDs of rules whose results depend on more than the recording's contents, such as rules
+        // which timed out, and so must not be stored
+        Set<String> transientResults = ConcurrentHashMap.newKeySet();
+        BiConsumer<IRule, AnalysisResult> resultStorer =
+                (rule, result) -> {
+                    if (resultStore == null
+                            || resultsKey == null
+                            || !predicate.test(rule)
+                            || transientResults.contains(rule.getId())) {
+                        return;
+                    }
+                    String key = resultKey(resultsKey, rule);
+                    if (key == null) {
+                        return;
+                    }
                     try {
-                        Collection<IResult> results =
-                                generateResultHelper(recording, predicate).left;
-                        Map<String, AnalysisResult> evalMap = new HashMap<String, AnalysisResult>();
-                        for (var eval : results) {
-                            IQuantity scoreQuantity = eval.getResult(TypedResult.SCORE);
-                            double score;
-                            if (scoreQuantity != null) {
-                                score = scoreQuantity.doubleValue();
-                            } else {
-                                score = eval.getSeverity().getLimit();
-                            }
-                            evalMap.put(eval.getRule().getId(), new AnalysisResult(score, eval));
-                        }
-                        return evalMap;
-                    } catch (InterruptedException
-                            | IOException
-                            | ExecutionException
-                            | CouldNotLoadRecordingException e) {
-                        throw new CompletionException(e);
+                        resultStore.put(key, result);
+                    } catch (RuntimeException e) {
+                        logger.warn("Could not store result for rule: " + rule.getId(), e);
+                    }
+                };
+        // the parsed recording which this report holds a reference to, completed even if the report
+        // is cancelled before it receives it, so that the reference is always released
+        CompletableFuture<IItemCollection> loaded = new CompletableFuture<>();
+        // the permit is held until the report completes, since the parsed recording is retained
+        // while its rules are evaluated
+        CompletableFuture<ReportAdmissionController.Permit> admission =
+                admissionController == null
+                        ? CompletableFuture.completedFuture(null)
+                        : stages.track(
+                                admissionController.acquire(
+                                        estimateSize(recording, recordingSize)));
+        CompletableFuture<Map<String, AnalysisResult>> evalMap =
+                admission
+                        .thenCompose(
+                                permit ->
+                                        load(
+                                                        recordingKey,
+                                                        recording,
+                                                        predicate,
+                                                        window,
+                                                        stages,
+                                                        loaded)
+                                                .thenApply(parsed -> charge(permit, parsed)))
+                        .thenCompose(
+                                parsed ->
+                                        stages.submit(
+                                                qThread,
+                                                () ->
+                                                        scheduleEvaluations(
+                                                                window == null
+                                                                        ? parsed.left
+                                                                        : withinWindow(
+                                                                                parsed.left,
+                                                                                window),
+                                                                predicate,
+                                                                stages,
+                                                                transientResults)))
+                        .thenCompose(
+                                resultFutures ->
+                                        collectResults(
+                                                resultFutures,
+                                                stages,
+                                                resultListener,
+                                                resultStorer))
+                        // release before the report completes, so that a caller which waits for
+                        // it can immediately be admitted again. If the report is cancelled then
+                        // its stages are too, so this still runs.
+                        .whenComplete(
+                                (v, t) -> {
+                                    loaded.thenAccept(InterruptibleReportGenerator::release);
+                                    releaseAdmission(admission, recording);
+                                });
+        supervise(evalMap, stages);
+        return evalMap;
+    }
+
+    /**
+     * Evaluate rules against a recording which has already been parsed, such as one assembled from
+     * individually parsed chunks by a {@link LiveAnalysisSession}. Admission control and the result
+     * store do not apply, since there is no recording to load.
+     */
+    CompletableFuture<Map<String, AnalysisResult>> generateEvalMapInterruptibly(
+            IItemCollection items, Predicate<IRule> predicate) {
+        Objects.requireNonNull(items);
+        Objects.requireNonNull(predicate);
+        StageTracker stages = new StageTracker();
+        CompletableFuture<Map<String, AnalysisResult>> evalMap =
+                stages.submit(
+                                qThread,
+                                () ->
+                                        scheduleEvaluations(
+                                                items,
+                                                predicate,
+                                                stages,
+                                                ConcurrentHashMap.newKeySet()))
+                        .thenCompose(
+                                resultFutures ->
+                                        collectResults(
+                                                resultFutures,
+                                                stages,
+                                                (id, r) -> {},
+                                                (rule, r) -> {}));
+        supervise(evalMap, stages);
+        return evalMap;
+    }
+
+    /**
+     * Run a task which reads and parses a recording, or part of one, the way a report's recording
+     * is parsed: once admitted by the {@link ReportAdmissionController}, on the parsing executor,
+     * and within the report timeout. The task should read the recording through an {@link
+     * InterruptibleInputStream}, and parse it with {@link #parseChunk}. The permit is held until
+     * the task completes. The recording is closed if the task is cancelled or times out, so that a
+     * blocked read is released, but is otherwise left open.
+     */
+    <T> CompletableFuture<T> submitParse(
+            InputStream recording, long recordingSize, Callable<T> task) {
+        Objects.requireNonNull(recording);
+        Objects.requireNonNull(task);
+        StageTracker stages = new StageTracker();
+        CompletableFuture<ReportAdmissionController.Permit> admission =
+                admissionController == null
+                        ? CompletableFuture.completedFuture(null)
+                        : stages.track(
+                                admissionController.acquire(
+                                        estimateSize(recording, recordingSize)));
+        CompletableFuture<T> parsed =
+                admission
+                        .thenCompose(
+                                permit -> {
+                                    stages.onCancel(() -> closeQuietly(recording));
+                                    return stages.submit(parsingExecutor, task);
+                                })
+                        .whenComplete(
+                                (v, t) -> {
+                                    if (admission.isDone()
+                                            && !admission.isCompletedExceptionally()
+                                            && admission.join() != null) {
+                                        admission.join().release();
+                                    }
+                                });
+        supervise(parsed, stages);
+        return parsed;
+    }
+
+    /**
+     * Parse one or more chunks of a recording on the calling thread, which should be running a
+     * {@link #submitParse} task. The parsed events are stored off the heap if configured, in which
+     * case the caller holds the only reference to them. The stream is closed once parsed.
+     */
+    IItemCollection parseChunk(InputStream chunk)
+            throws IOException, CouldNotLoadRecordingException {
+        return parse(chunk, Set.of()).left;
+    }
+
+    private void supervise(CompletableFuture<?> evalMap, StageTracker stages) {
+        ScheduledFuture<?> expiry =
+                reportTimeout == null
+                        ? null
+                        : scheduleTimeout(timeoutScheduler, qThread, reportTimeout, stages::expire);
+        evalMap.whenComplete(
+                (v, t) -> {
+                    if (expiry != null) {
+                        expiry.cancel(false);
+                    }
+                    if (evalMap.isCancelled()) {
+                        stages.cancel();
                     }
                 });
     }
 
-    private Pair<Collection<IResult>, Long> generateResultHelper(
-            InputStream recording, Predicate<IRule> predicate)
-            throws InterruptedException,
-                    IOException,
-                    ExecutionException,
-                    CouldNotLoadRecordingException {
-        ResultProvider resultProvider = new ResultProvider();
-        Map<IRule, Future<IResult>> resultFutures = new HashMap<>();
-        Queue<RunnableFuture<IResult>> futureQueue = new ConcurrentLinkedQueue<>();
-        // Map using the rule name as a key, and a Pair containing the rule (left) and it's
-        // dependency (right)
-        Map<String, Pair<IRule, IRule>> rulesWithDependencies = new HashMap<>();
-        Map<IRule, IResult> computedResults = new HashMap<>();
-        try (CountingInputStream countingRecordingStream = new CountingInputStream(recording)) {
-            // TODO parsing the JFR file should also happen on the executor rather than the qThread,
-            // so that this method can return to the qThread more quickly and free up the ability to
-            // queue more work on the executor.
-            IItemCollection items = JfrLoaderToolkit.loadEvents(countingRecordingStream);
-            for (IRule rule : this.rules) {
-                if (predicate.test(rule)
-                        && RulesToolkit.matchesEventAvailabilityMap(
-                                items, rule.getRequiredEvents())) {
-                    if (hasDependency(rule)) {
-                        IRule depRule =
-                                this.rules.stream()
-                                        .filter(r -> r.getId().equals(getRuleDependencyName(rule)))
-                                        .findFirst()
-                                        .orElse(null);
-                        rulesWithDependencies.put(rule.getId(), new Pair<>(rule, depRule));
-                    } else {
-                        RunnableFuture<IResult> resultFuture =
-                                rule.createEvaluation(
-                                        items,
-                                        IPreferenceValueProvider.DEFAULT_VALUES,
-                                        resultProvider);
-                        resultFutures.put(rule, resultFuture);
-                        futureQueue.add(resultFuture);
+    /**
+     * Run the action on the executor once the timeout has elapsed. The scheduler's thread is shared
+     * by every generator, so it only hands the action off, and is not held up by the stages which
+     * the action completes. If the executor has been shut down, the action runs on the scheduler's
+     * thread instead.
+     */
+    private static ScheduledFuture<?> scheduleTimeout(
+            ScheduledExecutorService timeoutScheduler,
+            Executor executor,
+            Duration timeout,
+            Runnable action) {
+        return timeoutScheduler.schedule(
+                () -> {
+                    try {
+                        executor.execute(action);
+                    } catch (RejectedExecutionException e) {
+                        action.run();
                     }
-                } else {
-                    resultFutures.put(
-                            rule,
-                            CompletableFuture.completedFuture(
-                                    ResultBuilder.createFor(
-                                                    rule, IPreferenceValueProvider.DEFAULT_VALUES)
-                                            .setSeverity(Severity.NA)
-                                            .build()));
-                }
+                },
+                timeout.toNanos(),
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Analyze a recording which is already on local disk. The file is read through memory mappings
+     * rather than a buffered stream, so repeated analyses of the same file can be served from the
+     * page cache.
+     */
+    public Future<Map<String, AnalysisResult>> generateEvalMapInterruptibly(
+            Path recording, Predicate<IRule> predicate) {
+        return generateEvalMapInterruptibly(null, recording, predicate, (id, r) -> {});
+    }
+
+    public Future<Map<String, AnalysisResult>> generateEvalMapInterruptibly(
+            String recordingKey,
+            Path recording,
+            Predicate<IRule> predicate,
+            BiConsumer<String, AnalysisResult> resultListener) {
+        return generateEvalMapInterruptibly(
+                recordingKey, recording, predicate, null, resultListener);
+    }
+
+    /**
+     * Analyze part of a recording which is already on local disk. Chunks outside of the window are
+     * skipped over in the file's mapping without being read.
+     *
+     * @see #generateEvalMapInterruptibly(String, InputStream, Predicate, IRange, BiConsumer)
+     */
+    public Future<Map<String, AnalysisResult>> generateEvalMapInterruptibly(
+            String recordingKey,
+            Path recording,
+            Predicate<IRule> predicate,
+            IRange<IQuantity> window,
+            BiConsumer<String, AnalysisResult> resultListener) {
+        Objects.requireNonNull(recording);
+        return generateEvalMapInterruptibly(
+                recordingKey,
+                new MappedFileInputStream(recording),
+                predicate,
+                window,
+                resultListener);
+    }
+
+    /**
+     * Generate reports for many recordings at once, for example for periodic analysis of a whole
+     * fleet. All of the recordings' parses and rule evaluations share this generator's executors,
+     * so evaluations for different recordings are interleaved rather than each report running
+     * alone, and the rules selected by the predicate are only determined once for the whole batch.
+     *
+     * @param recordings recording streams by recording key. As for {@link
+     *     #generateEvalMapInterruptibly(String, InputStream, Predicate)} the keys must identify the
+     *     recordings' contents, not just their source, if a {@link ParsedRecordingCache} or {@link
+     *     AnalysisResultStore} is configured.
+     * @return a report per recording key, in the iteration order of the given map. The reports
+     *     complete independently, so one failing recording does not affect the others.
+     */
+    public Map<String, Future<Map<String, AnalysisResult>>> generateEvalMapsInterruptibly(
+            Map<String, ? extends InputStream> recordings, Predicate<IRule> predicate) {
+        Objects.requireNonNull(recordings);
+        Objects.requireNonNull(predicate);
+        Set<IRule> selected =
+                this.rules.stream()
+                        .filter(predicate)
+                        .collect(Collectors.toCollection(HashSet::new));
+        Map<String, Future<Map<String, AnalysisResult>>> reports = new LinkedHashMap<>();
+        recordings.forEach(
+                (key, recording) ->
+                        reports.put(
+                                key,
+                                generateEvalMapInterruptibly(
+                                        key, recording, selected::contains, (id, r) -> {})));
+        return reports;
+    }
+
+    /** Batch variant of {@link #generateEvalMapInterruptibly(Path, Predicate)}. */
+    public Map<String, Future<Map<String, AnalysisResult>>> generateEvalMapsFromPaths(
+            Map<String, Path> recordings, Predicate<IRule> predicate) {
+        Objects.requireNonNull(recordings);
+        Map<String, InputStream> streams = new LinkedHashMap<>();
+        recordings.forEach((key, path) -> streams.put(key, new MappedFileInputStream(path)));
+        return generateEvalMapsInterruptibly(streams, predicate);
+    }
+
+    /**
+     * Charge a report's permit for the direct memory of its parsed recording, which the estimated
+     * recording size does not account for. A recording shared through the cache is charged to each
+     * report which reads it.
+     */
+    private static Pair<IItemCollection, Long> charge(
+            ReportAdmissionController.Permit permit, Pair<IItemCollection, Long> parsed) {
+        if (permit != null && parsed.left instanceof OffHeapItemCollection) {
+            permit.charge(((OffHeapItemCollection) parsed.left).getOffHeapBytes());
+        }
+        return parsed;
+    }
+
+    /**
+     * Release a report's reference to its parsed recording. A rule which timed out may not have
+     * noticed its interrupt yet, but the reused direct buffers remain valid memory, so it can at
+     * worst read meaningless values before its result is discarded.
+     */
+    private static void release(IItemCollection items) {
+        if (items instanceof OffHeapItemCollection) {
+            ((OffHeapItemCollection) items).close();
+        }
+    }
+
+    private void releaseAdmission(
+            CompletableFuture<ReportAdmissionController.Permit> admission, InputStream recording) {
+        if (admission.isCompletedExceptionally()) {
+            // never admitted, so the recording will not be parsed
+            closeQuietly(recording);
+        } else if (admission.isDone() && admission.join() != null) {
+            admission.join().release();
+        }
+    }
+
+    private void closeQuietly(InputStream recording) {
+        try {
+            recording.close();
+        } catch (IOException e) {
+            logger.warn("Exception thrown", e);
+        }
+    }
+
+    private static long estimateSize(InputStream recording, long recordingSize) {
+        if (recordingSize >= 0) {
+            return recordingSize;
+        }
+        if (recording instanceof MappedFileInputStream) {
+            return ((MappedFileInputStream) recording).size();
+        }
+        if (recording instanceof FileInputStream) {
+            try {
+                // exact for file streams, but near 0 for network and piped streams
+                return recording.available();
+            } catch (IOException e) {
+                return UNKNOWN_SIZE;
+            }
+        }
+        return UNKNOWN_SIZE;
+    }
+
+    /**
+     * @return the stored results of every rule selected by the predicate, or null if any of them
+     *     has not been stored
+     */
+    private Map<String, AnalysisResult> storedResults(
+            String recordingKey, Predicate<IRule> predicate) {
+        Map<String, AnalysisResult> evalMap = new HashMap<>();
+        for (IRule rule : this.rules) {
+            if (!predicate.test(rule)) {
+                evalMap.put(rule.getId(), toAnalysisResult(notApplicable(rule)));
+                continue;
+            }
+            String key = resultKey(recordingKey, rule);
+            if (key == null) {
+                return null;
+            }
+            Optional<AnalysisResult> stored = resultStore.get(key);
+            if (stored.isEmpty()) {
+                return null;
             }
-            // TODO this implementation forces rule dependencies to be evaluated on the qThread. The
-            // executor is only used for rules that have no dependencies or which have all their
-            // dependencies satisfied (by the qThread). Ideally we should perform all of the rule
-            // evaluations on executor threads.
-            for (Entry<String, Pair<IRule, IRule>> entry : rulesWithDependencies.entrySet()) {
-                IRule rule = entry.getValue().left;
-                IRule depRule = entry.getValue().right;
-                Future<IResult> depResultFuture = resultFutures.get(depRule);
-                if (depResultFuture == null) {
-                    resultFutures.put(
-                            rule,
-                            CompletableFuture.completedFuture(
-                                    ResultBuilder.createFor(
-                                                    rule, IPreferenceValueProvider.DEFAULT_VALUES)
-                                            .setSeverity(Severity.NA)
-                                            .build()));
-                } else {
-                    IResult depResult = null;
-                    if (!depResultFuture.isDone()) {
-                        ((Runnable) depResultFuture).run();
-                        try {
-                            depResult = depResultFuture.get();
-                            resultProvider.addResults(depResult);
-                            computedResults.put(depRule, depResult);
-                        } catch (InterruptedException | ExecutionException e) {
-                            logger.warn("Error retrieving results for rule: " + depResult);
+            evalMap.put(rule.getId(), stored.get());
+        }
+        return evalMap;
+    }
+
+    /**
+     * The version of the code a class was loaded from. Rules from this library have the library's
+     * version. Other rules have the Bundle-Version or Implementation-Version of the jar they were
+     * loaded from, such as the JMC rules jar. Classes which were not loaded from a versioned jar
+     * have no version.
+     */
+    private static String codeVersion(Class<?> type) {
+        URI location = codeLocation(type);
+        if (location == null) {
+            return null;
+        }
+        if (location.equals(codeLocation(InterruptibleReportGenerator.class))) {
+            return LIBRARY_VERSION;
+        }
+        try (JarFile jar = new JarFile(new File(location))) {
+            Manifest manifest = jar.getManifest();
+            if (manifest == null) {
+                return null;
+            }
+            Attributes attributes = manifest.getMainAttributes();
+            String version = attributes.getValue("Bundle-Version");
+            if (version == null) {
+                version = attributes.getValue(Attributes.Name.IMPLEMENTATION_VERSION);
+            }
+            return version;
+        } catch (IOException | IllegalArgumentException e) {
+            // not a jar file, such as a classes directory
+            return null;
+        }
+    }
+
+    private static URI codeLocation(Class<?> type) {
+        CodeSource source = type.getProtectionDomain().getCodeSource();
+        if (source == null || source.getLocation() == null) {
+            return null;
+        }
+        try {
+            return source.getLocation().toURI();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    private static String libraryVersion() {
+        try (InputStream is =
+                InterruptibleReportGenerator.class.getResourceAsStream("version.properties")) {
+            if (is == null) {
+                return null;
+            }
+            Properties properties = new Properties();
+            properties.load(is);
+            String version = properties.getProperty("version");
+            // unfiltered, such as when the resource was copied without the Maven build
+            return version == null || version.startsWith("${") ? null : version;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the key of the rule's stored result, or null if the version of the rule's
+     *     implementation is not known, in which case its result must not be stored
+     */
+    private static String resultKey(String recordingKey, IRule rule) {
+        Optional<String> version = RULE_VERSIONS.get(rule.getClass());
+        if (version.isEmpty()) {
+            return null;
+        }
+        StringBuilder key =
+                new StringBuilder(recordingKey)
+                        .append('/')
+                        .append(rule.getId())
+                        .append('/')
+                        .append(rule.getClass().getName())
+                        .append('@')
+                        .append(version.get());
+        for (TypedPreference<?> preference : rule.getConfigurationAttributes()) {
+            key.append('/')
+                    .append(preference.getIdentifier())
+                    .append('=')
+                    .append(IPreferenceValueProvider.DEFAULT_VALUES.getPreferenceValue(preference));
+        }
+        return key.toString();
+    }
+
+    private CompletableFuture<Pair<IItemCollection, Long>> load(
+            String recordingKey,
+            InputStream recording,
+            Predicate<IRule> predicate,
+            IRange<IQuantity> window,
+            StageTracker stages,
+            CompletableFuture<IItemCollection> loaded) {
+        if (recordingKey == null || parsedRecordingCache == null) {
+            // cached recordings are always fully parsed, since they may be reused with other
+            // predicates and windows
+            Set<String> excludedEventTypes =
+                    pruneEventTypes ? prunableEventTypes(predicate) : Set.of();
+            // interrupting the parse does not unblock a read from a remote stream, but closing the
+            // stream does
+            stages.onCancel(() -> closeQuietly(recording));
+            if (window == null) {
+                return stages.submit(
+                        parsingExecutor,
+                        () -> loaded(loaded, parse(recording, excludedEventTypes)));
+            }
+            ChunkWindowInputStream windowed =
+                    new ChunkWindowInputStream(
+                            recording,
+                            window.getStart().clampedLongValueIn(UnitLookup.EPOCH_NS),
+                            window.getEnd().clampedLongValueIn(UnitLookup.EPOCH_NS));
+            return stages.submit(
+                    parsingExecutor,
+                    () -> {
+                        if (windowed.hasSelectedChunk()) {
+                            return loaded(loaded, parse(windowed, excludedEventTypes));
                         }
-                    } else {
-                        depResult = computedResults.get(depRule);
-                    }
-                    if (depResult != null && shouldEvaluate(rule, depResult)) {
-                        RunnableFuture<IResult> resultFuture =
-                                rule.createEvaluation(
-                                        items,
-                                        IPreferenceValueProvider.DEFAULT_VALUES,
-                                        resultProvider);
-                        resultFutures.put(rule, resultFuture);
-                        futureQueue.add(resultFuture);
-                    } else {
-                        resultFutures.put(
-                                rule,
-                                CompletableFuture.completedFuture(
-                                        ResultBuilder.createFor(
-                                                        rule,
-                                                        IPreferenceValueProvider.DEFAULT_VALUES)
-                                                .setSeverity(Severity.NA)
-                                                .build()));
-                    }
-                }
+                        windowed.close();
+                        return new Pair<>(ItemCollectionToolkit.EMPTY, 0L);
+                    });
+        }
+        // a cached parse may be shared by several reports, so it is not cancelled along with
+        // any one of them
+        AtomicBoolean loading = new AtomicBoolean();
+        CompletableFuture<Pair<IItemCollection, Long>> parsed =
+                parsedRecordingCache.computeIfAbsent(
+                        recordingKey,
+                        () -> {
+                            loading.set(true);
+                            return new StageTracker()
+                                    .submit(parsingExecutor, () -> parse(recording, Set.of()));
+                        });
+        if (!loading.get()) {
+            closeQuietly(recording);
+        }
+        // the cache gives each request its own reference, even if the request is cancelled
+        parsed.thenAccept(p -> loaded.complete(p.left));
+        return stages.track(parsed.thenApply(p -> p));
+    }
+
+    private static Pair<IItemCollection, Long> loaded(
+            CompletableFuture<IItemCollection> loaded, Pair<IItemCollection, Long> parsed) {
+        loaded.complete(parsed.left);
+        return parsed;
+    }
+
+    private static IItemCollection withinWindow(IItemCollection items, IRange<IQuantity> window) {
+        return items.apply(
+                ItemFilters.or(
+                        ItemFilters.type(PER_CHUNK_EVENT_TYPES),
+                        ItemFilters.rangeIntersects(JfrAttributes.LIFETIME, window)));
+    }
+
+    private static AnalysisResult toAnalysisResult(IResult eval) {
+        IQuantity scoreQuantity = eval.getResult(TypedResult.SCORE);
+        double score;
+        if (scoreQuantity != null) {
+            score = scoreQuantity.doubleValue();
+        } else {
+            score = eval.getSeverity().getLimit();
+        }
+        return new AnalysisResult(score, eval);
+    }
+
+    /**
+     * Event types which no rule selected by the predicate (nor any of their dependencies) require,
+     * but which some other rule does. Event types that no rule requires are not pruned, since they
+     * may still be consulted by rules in ways that their required events do not describe.
+     */
+    private Set<String> prunableEventTypes(Predicate<IRule> predicate) {
+        Set<String> prunable = new HashSet<>();
+        Set<String> required = new HashSet<>(ALWAYS_LOADED_EVENT_TYPES);
+        for (IRule rule : this.rules) {
+            prunable.addAll(rule.getRequiredEvents().keySet());
+            if (!predicate.test(rule)) {
+                continue;
             }
-            RunnableFuture<IResult> resultFuture;
-            while ((resultFuture = futureQueue.poll()) != null) {
-                executor.submit(resultFuture);
-            }
-            Collection<IResult> results = new HashSet<IResult>();
-            for (Future<IResult> future : resultFutures.values()) {
-                results.add(future.get());
-            }
-            return new Pair<Collection<IResult>, Long>(
-                    results, countingRecordingStream.getByteCount());
-        } catch (InterruptedException
-                | IOException
-                | ExecutionException
-                | CouldNotLoadRecordingException e) {
-            for (Future<?> f : resultFutures.values()) {
-                if (!f.isDone()) {
-                    f.cancel(true);
-                }
+            Set<String> visited = new HashSet<>();
+            for (IRule r = rule; r != null && visited.add(r.getId()); r = getDependency(r)) {
+                required.addAll(r.getRequiredEvents().keySet());
+                required.addAll(UNDECLARED_EVENT_TYPES.getOrDefault(r.getId(), Set.of()));
+            }
+        }
+        prunable.removeAll(required);
+        return prunable;
+    }
+
+    private IRule getDependency(IRule rule) {
+        if (!hasDependency(rule)) {
+            return null;
+        }
+        String dependencyName = getRuleDependencyName(rule);
+        return this.rules.stream()
+                .filter(r -> r.getId().equals(dependencyName))
+                .findFirst()
+                .orElse(null);
+    }
+
+    private Pair<IItemCollection, Long> parse(InputStream recording, Set<String> excludedEventTypes)
+            throws IOException, CouldNotLoadRecordingException {
+        long start = System.nanoTime();
+        try (CountingInputStream countingRecordingStream =
+                new CountingInputStream(new InterruptibleInputStream(recording))) {
+            IItemCollection items;
+            if (excludedEventTypes.isEmpty()) {
+                items = JfrLoaderToolkit.loadEvents(countingRecordingStream);
+            } else {
+                List<IParserExtension> extensions =
+                        new ArrayList<>(ParserExtensionRegistry.getParserExtensions());
+                extensions.add(
+                        new FilterExtension(OnLoadFilters.excludeEvents(excludedEventTypes)));
+                items = JfrLoaderToolkit.loadEvents(countingRecordingStream, extensions);
+            }
+            if (offHeapArena != null) {
+                items = OffHeapItemCollection.copyOf(items, offHeapArena);
             }
+            long bytesRead = countingRecordingStream.getByteCount();
+            if (metricsListener != null) {
+                metricsListener.recordingParsed(bytesRead, System.nanoTime() - start);
+            }
+            return new Pair<>(items, bytesRead);
+        } catch (IOException | CouldNotLoadRecordingException e) {
             logger.warn("Exception thrown", e);
             throw e;
         }
     }
 
+    private CompletableFuture<Map<String, AnalysisResult>> collectResults(
+            Map<IRule, CompletableFuture<IResult>> resultFutures,
+            StageTracker stages,
+            BiConsumer<String, AnalysisResult> resultListener,
+            BiConsumer<IRule, AnalysisResult> resultStorer) {
+        Map<String, AnalysisResult> evalMap = new ConcurrentHashMap<>();
+        List<CompletableFuture<Void>> collected = new ArrayList<>();
+        for (CompletableFuture<IResult> future : resultFutures.values()) {
+            collected.add(
+                    future.thenAccept(
+                            eval -> {
+                                String id = eval.getRule().getId();
+                                AnalysisResult result = toAnalysisResult(eval);
+                                evalMap.put(id, result);
+                                resultStorer.accept(eval.getRule(), result);
+                                if (!stages.isCancelled()) {
+                                    notify(resultListener, id, result);
+                                }
+                            }));
+        }
+        return CompletableFuture.allOf(collected.toArray(new CompletableFuture[0]))
+                .thenApply(v -> new HashMap<>(evalMap));
+    }
+
+    private void notify(
+            BiConsumer<String, AnalysisResult> resultListener, String id, AnalysisResult result) {
+        try {
+            resultListener.accept(id, result);
+        } catch (RuntimeException e) {
+            logger.warn("Result listener failed for rule: " + id, e);
+        }
+    }
+
+    /**
+     * Builds the evaluation graph for the rules that pass the predicate. Rules without dependencies
+     * are submitted to the executor immediately, while a rule annotated with {@link DependsOn} is
+     * submitted as soon as its dependency's result is known, so independent chains of rules are
+     * evaluated in parallel. None of the rule evaluations run on the calling thread.
+     */
+    private Map<IRule, CompletableFuture<IResult>> scheduleEvaluations(
+            IItemCollection items,
+            Predicate<IRule> predicate,
+            StageTracker stages,
+            Set<String> transientResults) {
+        ConcurrentResultProvider resultProvider = new ConcurrentResultProvider();
+        Map<IRule, CompletableFuture<IResult>> resultFutures = new HashMap<>();
+        for (IRule rule : this.rules) {
+            scheduleEvaluation(
+                    rule,
+                    items,
+                    predicate,
+                    stages,
+                    transientResults,
+                    resultProvider,
+                    resultFutures,
+                    new HashSet<>());
+        }
+        return resultFutures;
+    }
+
+    private CompletableFuture<IResult> scheduleEvaluation(
+            IRule rule,
+            IItemCollection items,
+            Predicate<IRule> predicate,
+            StageTracker stages,
+            Set<String> transientResults,
+            ConcurrentResultProvider resultProvider,
+            Map<IRule, CompletableFuture<IResult>> resultFutures,
+            Set<IRule> visiting) {
+        CompletableFuture<IResult> scheduled = resultFutures.get(rule);
+        if (scheduled != null) {
+            return scheduled;
+        }
+        if (!visiting.add(rule)) {
+            logger.warn("Circular rule dependency detected for rule: {}", rule.getId());
+            return CompletableFuture.completedFuture(notApplicable(rule));
+        }
+        CompletableFuture<IResult> resultFuture;
+        if (!predicate.test(rule)
+                || !RulesToolkit.matchesEventAvailabilityMap(items, rule.getRequiredEvents())) {
+            resultFuture = CompletableFuture.completedFuture(notApplicable(rule));
+        } else if (hasDependency(rule)) {
+            IRule depRule =
+                    this.rules.stream()
+                            .filter(r -> r.getId().equals(getRuleDependencyName(rule)))
+                            .findFirst()
+                            .orElse(null);
+            if (depRule == null) {
+                resultFuture = CompletableFuture.completedFuture(notApplicable(rule));
+            } else {
+                resultFuture =
+                        scheduleEvaluation(
+                                        depRule,
+                                        items,
+                                        predicate,
+                                        stages,
+                                        transientResults,
+                                        resultProvider,
+                                        resultFutures,
+                                        visiting)
+                                .handle(
+                                        (depResult, t) -> {
+                                            if (t != null) {
+                                                logger.warn(
+                                                        "Error retrieving results for rule: "
+                                                                + depRule.getId(),
+                                                        t);
+                                                return null;
+                                            }
+                                            return depResult;
+                                        })
+                                .thenCompose(
+                                        depResult -> {
+                                            if (depResult != null
+                                                    && shouldEvaluate(rule, depResult)) {
+                                                return evaluate(
+                                                        rule,
+                                                        items,
+                                                        stages,
+                                                        transientResults,
+                                                        resultProvider);
+                                            }
+                                            // a dependency which was not selected is not
+                                            // applicable in this report only
+                                            if (depResult == null
+                                                    || !predicate.test(depRule)
+                                                    || transientResults.contains(depRule.getId())) {
+                                                transientResults.add(rule.getId());
+                                            }
+                                            return CompletableFuture.completedFuture(
+                                                    notApplicable(rule));
+                                        });
+            }
+        } else {
+            resultFuture = evaluate(rule, items, stages, transientResults, resultProvider);
+        }
+        visiting.remove(rule);
+        resultFutures.put(rule, resultFuture);
+        return resultFuture;
+    }
+
+    private CompletableFuture<IResult> evaluate(
+            IRule rule,
+            IItemCollection items,
+            StageTracker stages,
+            Set<String> transientResults,
+            ConcurrentResultProvider resultProvider) {
+        return stages.submit(
+                        executor,
+                        () -> {
+                            ThreadResourceUsage usage =
+                                    metricsListener == null ? null : ThreadResourceUsage.start();
+                            try {
+                                RunnableFuture<IResult> evaluation =
+                                        rule.createEvaluation(
+                                                CancellableItemCollection.wrap(items),
+                                                IPreferenceValueProvider.DEFAULT_VALUES,
+                                                resultProvider);
+                                evaluation.run();
+                                IResult result = evaluation.get();
+                                // make this result visible to any rules which depend on it before
+                                // they are scheduled
+                                resultProvider.addResults(result);
+                                return result;
+                            } finally {
+                                if (usage != null) {
+                                    reportRuleMetrics(rule, usage);
+                                }
+                            }
+                        },
+                        timeoutScheduler,
+                        qThread,
+                        ruleTimeout)
+                .handle(
+                        (result, t) -> {
+                            if (t == null) {
+                                return result;
+                            }
+                            Throwable cause = t instanceof CompletionException ? t.getCause() : t;
+                            if (cause instanceof TimeoutException) {
+                                logger.warn(
+                                        "Evaluation of rule {} timed out: {}",
+                                        rule.getId(),
+                                        cause.getMessage());
+                                transientResults.add(rule.getId());
+                                return timedOut(rule, cause.getMessage());
+                            }
+                            throw t instanceof CompletionException
+                                    ? (CompletionException) t
+                                    : new CompletionException(t);
+                        });
+    }
+
+    private void reportRuleMetrics(IRule rule, ThreadResourceUsage usage) {
+        try {
+            metricsListener.ruleEvaluated(
+                    rule.getId(), usage.elapsedNanos(), usage.cpuNanos(), usage.allocatedBytes());
+        } catch (RuntimeException e) {
+            logger.warn("Metrics listener failed for rule: " + rule.getId(), e);
+        }
+    }
+
+    private static IResult timedOut(IRule rule, String reason) {
+        return ResultBuilder.createFor(rule, IPreferenceValueProvider.DEFAULT_VALUES)
+                .setSeverity(Severity.NA)
+                .setSummary("The rule evaluation was cancelled: " + reason + ".")
+                .build();
+    }
+
+    private static IResult notApplicable(IRule rule) {
+        return ResultBuilder.createFor(rule, IPreferenceValueProvider.DEFAULT_VALUES)
+                .setSeverity(Severity.NA)
+                .build();
+    }
+
+    /**
+     * {@link ResultProvider} is not thread-safe, but with rule evaluations running concurrently
+     * dependency results may be added and read from several executor threads at once.
+     */
+    private static class ConcurrentResultProvider implements IResultValueProvider {
+        private final ResultProvider delegate = new ResultProvider();
+
+        synchronized void addResults(IResult result) {
+            delegate.addResults(result);
+        }
+
+        @Override
+        public synchronized <T> T getResultValue(TypedResult<T> result) {
+            return delegate.getResultValue(result);
+        }
+
+        @Override
+        public synchronized <T> Collection<T> getResultValue(TypedCollectionResult<T> result) {
+            return delegate.getResultValue(result);
+        }
+
+        @Override
+        public synchronized TypedResult<?> getResultByIdentifier(String identifier) {
+            return delegate.getResultByIdentifier(identifier);
+        }
+    }
+
+    /**
+     * Tracks the stages of a single report which are running on the various executors, so that
+     * cancelling the report also cancels (and interrupts) whichever stages are currently in flight,
+     * and so that stages still in flight when the report's time budget runs out can be timed out.
+     */
+    private static class StageTracker {
+        private final Queue<CompletableFuture<?>> stages = new ConcurrentLinkedQueue<>();
+        private final Queue<Runnable> cancellationHooks = new ConcurrentLinkedQueue<>();
+        private volatile boolean cancelled;
+        private volatile boolean expired;
+
+        <T> CompletableFuture<T> submit(ExecutorService executor, Callable<T> task) {
+            return submit(executor, task, null, null, null);
+        }
+
+        /**
+         * @param timeoutExecutor runs the completion of a timed out stage, and so its dependent
+         *     stages, rather than the timeout scheduler's thread
+         * @param timeout if not null, the stage is completed with a {@link TimeoutException} and
+         *     its task interrupted once it has been running for this long. Time spent queued on the
+         *     executor does not count against the timeout.
+         */
+        <T> CompletableFuture<T> submit(
+                ExecutorService executor,
+                Callable<T> task,
+                ScheduledExecutorService timeoutScheduler,
+                Executor timeoutExecutor,
+                Duration timeout) {
+            CompletableFuture<T> stage = track(new CompletableFuture<>());
+            if (stage.isDone()) {
+                return stage;
+            }
+            AtomicBoolean finished = new AtomicBoolean();
+            FutureTask<Void> ft =
+                    new FutureTask<>(
+                            () -> {
+                                if (stage.isDone()) {
+                                    return;
+                                }
+                                ScheduledFuture<?> timer = null;
+                                if (timeout != null) {
+                                    timer =
+                                            scheduleTimeout(
+                                                    timeoutScheduler,
+                                                    timeoutExecutor,
+                                                    timeout,
+                                                    () ->
+                                                            stage.completeExceptionally(
+                                                                    new TimeoutException(
+                                                                            "Exceeded time budget"
+                                                                                    + " of "
+                                                                                    + timeout)));
+                                }
+                                try {
+                                    T result = task.call();
+                                    finished.set(true);
+                                    stage.complete(result);
+                                } catch (Throwable t) {
+                                    finished.set(true);
+                                    stage.completeExceptionally(t);
+                                } finally {
+                                    if (timer != null) {
+                                        timer.cancel(false);
+                                    }
+                                }
+                            },
+                            null);
+            stage.whenComplete(
+                    (v, t) -> {
+                        // the stage was cancelled or timed out from outside of the task
+                        if (t != null && !finished.get()) {
+                            ft.cancel(true);
+                        }
+                    });
+            executor.execute(
+                    () -> {
+                        ft.run();
+                        if (ft.isCancelled()) {
+                            // the interrupt which cancelled the task must not leak into whichever
+                            // task the executor's thread runs next
+                            Thread.interrupted();
+                        }
+                    });
+            return stage;
+        }
+
+        <T> CompletableFuture<T> track(CompletableFuture<T> stage) {
+            if (cancelled) {
+                stage.cancel(true);
+                return stage;
+            }
+            if (expired) {
+                stage.completeExceptionally(new TimeoutException("Exceeded report time budget"));
+                return stage;
+            }
+            stages.add(stage);
+            stage.whenComplete((v, t) -> stages.remove(stage));
+            if (cancelled) {
+                cancel();
+            } else if (expired) {
+                expire();
+            }
+            return stage;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Run the hook if the tracked stages are cancelled or expire, or now if they already have.
+         * This is for releasing resources which interrupting the stages' tasks would not, such as a
+         * stream whose read is blocked.
+         */
+        void onCancel(Runnable hook) {
+            cancellationHooks.add(hook);
+            if (cancelled || expired) {
+                runCancellationHooks();
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            CompletableFuture<?> f;
+            while ((f = stages.poll()) != null) {
+                f.cancel(true);
+            }
+            runCancellationHooks();
+        }
+
+        private void runCancellationHooks() {
+            Runnable hook;
+            while ((hook = cancellationHooks.poll()) != null) {
+                hook.run();
+            }
+        }
+
+        void expire() {
+            expired = true;
+            CompletableFuture<?> f;
+            while ((f = stages.poll()) != null) {
+                f.completeExceptionally(new TimeoutException("Exceeded report time budget"));
+            }
+            runCancellationHooks();
+        }
+    }
+
     public static class AnalysisResult {
+        private static final int SERIAL_VERSION = 1;
+
         private String name;
         private String topic;
         private double score;
@@ -264,6 +1365,74 @@ public class InterruptibleReportGenerator {
             return evaluation;
         }
 
+        /** Write this result in a compact binary form which can be read by {@link #readFrom}. */
+        public void writeTo(DataOutput out) throws IOException {
+            out.writeByte(SERIAL_VERSION);
+            writeString(out, name);
+            writeString(out, topic);
+            out.writeDouble(score);
+            out.writeBoolean(evaluation != null);
+            if (evaluation != null) {
+                writeString(out, evaluation.summary);
+                writeString(out, evaluation.explanation);
+                writeString(out, evaluation.solution);
+                List<Evaluation.Suggestion> suggestions =
+                        evaluation.suggestions == null ? List.of() : evaluation.suggestions;
+                out.writeInt(suggestions.size());
+                for (Evaluation.Suggestion suggestion : suggestions) {
+                    writeString(out, suggestion.name);
+                    writeString(out, suggestion.setting);
+                    writeString(out, suggestion.value);
+                }
+            }
+        }
+
+        public static AnalysisResult readFrom(DataInput in) throws IOException {
+            int version = in.readUnsignedByte();
+            if (version != SERIAL_VERSION) {
+                throw new IOException("Unsupported serialized result version " + version);
+            }
+            String name = readString(in);
+            String topic = readString(in);
+            double score = in.readDouble();
+            Evaluation evaluation = null;
+            if (in.readBoolean()) {
+                String summary = readString(in);
+                String explanation = readString(in);
+                String solution = readString(in);
+                int count = in.readInt();
+                List<Evaluation.Suggestion> suggestions = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    suggestions.add(
+                            new Evaluation.Suggestion(
+                                    readString(in), readString(in), readString(in)));
+                }
+                evaluation = new Evaluation(summary, explanation, solution, suggestions);
+            }
+            return new AnalysisResult(name, topic, score, evaluation);
+        }
+
+        // DataOutput#writeUTF is limited to 64KiB and cannot represent null
+        private static void writeString(DataOutput out, String s) throws IOException {
+            if (s == null) {
+                out.writeInt(-1);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static String readString(DataInput in) throws IOException {
+            int length = in.readInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
         public static class Evaluation {
             private String summary;
             private String explanation;
@@ -272,6 +1441,17 @@ public class InterruptibleReportGenerator {
 
             Evaluation() {}
 
+            Evaluation(
+                    String summary,
+                    String explanation,
+                    String solution,
+                    List<Suggestion> suggestions) {
+                this.summary = summary;
+                this.explanation = explanation;
+                this.solution = solution;
+                this.suggestions = suggestions;
+            }
+
             Evaluation(IResult result) {
                 this.summary = ResultToolkit.populateMessage(result, result.getSummary(), false);
                 this.explanation =
@@ -306,6 +1486,12 @@ public class InterruptibleReportGenerator {
 
                 Suggestion() {}
 
+                Suggestion(String name, String setting, String value) {
+                    this.name = name;
+                    this.setting = setting;
+                    this.value = value;
+                }
+
                 Suggestion(IRecordingSetting setting) {
                     this.name = setting.getSettingName();
                     this.setting = setting.getSettingFor();
@@ -327,6 +1513,186 @@ public class InterruptibleReportGenerator {
         }
     }
 
+    // Timeouts only schedule cancellations, so one daemon thread serves every generator and is
+    // only started once a generator with a timeout is built
+    private static final class TimeoutScheduler {
+        static final ScheduledExecutorService INSTANCE = create();
+
+        private static ScheduledExecutorService create() {
+            ScheduledThreadPoolExecutor scheduler =
+                    new ScheduledThreadPoolExecutor(
+                            1,
+                            r -> {
+                                Thread t = new Thread(r, "report-timeouts");
+                                t.setDaemon(true);
+                                return t;
+                            });
+            scheduler.setRemoveOnCancelPolicy(true);
+            return scheduler;
+        }
+    }
+
+    public static final class Builder {
+        private final ExecutorService executor;
+        private ExecutorService parsingExecutor;
+        private boolean virtualThreads;
+        private ParsedRecordingCache parsedRecordingCache;
+        private Duration ruleTimeout;
+        private Duration reportTimeout;
+        private boolean pruneEventTypes;
+        private boolean offHeapEventStorage;
+        private long maxOffHeapBytes = DEFAULT_MAX_OFF_HEAP_BYTES;
+        private AnalysisResultStore resultStore;
+        private ReportAdmissionController admissionController;
+        private ReportMetricsListener metricsListener;
+        private List<IRule> rules;
+
+        private Builder(ExecutorService executor) {
+            this.executor = Objects.requireNonNull(executor);
+        }
+
+        /**
+         * Executor on which recordings are parsed. The JMC loader already parses the chunks of a
+         * single recording concurrently on threads of its own, so this only needs to be sized for
+         * the number of recordings which should be parsed at once.
+         */
+        public Builder parsingExecutor(ExecutorService parsingExecutor) {
+            this.parsingExecutor = Objects.requireNonNull(parsingExecutor);
+            return this;
+        }
+
+        /**
+         * Dispatch rule evaluations and read recordings on virtual threads, if the runtime supports
+         * them (Java 21 or later), so that reports waiting on slow remote recording streams do not
+         * each hold a platform thread. Rule evaluations still run on the executor given to {@link
+         * #create}, which bounds the CPU used by rules. Unless a {@link #parsingExecutor} is also
+         * given, recordings are then parsed on virtual threads too, so the number of recordings
+         * parsed at once is best bounded with an {@link #admissionController}. The virtual thread
+         * executor is shut down when the generator is closed. On older runtimes this has no effect.
+         */
+        public Builder virtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        @SuppressFBWarnings(
+                value = "EI_EXPOSE_REP2",
+                justification = "the cache is intentionally shared between generators")
+        public Builder parsedRecordingCache(ParsedRecordingCache parsedRecordingCache) {
+            this.parsedRecordingCache = parsedRecordingCache;
+            return this;
+        }
+
+        /**
+         * Limit the time that any single rule evaluation may run for. A rule which runs out of time
+         * is interrupted and reported with {@link Severity#NA}.
+         */
+        public Builder ruleTimeout(Duration ruleTimeout) {
+            this.ruleTimeout = requirePositive(ruleTimeout);
+            return this;
+        }
+
+        /**
+         * Limit the time that a whole report may take, including parsing the recording. If parsing
+         * does not complete in time then the report fails with a {@link TimeoutException},
+         * otherwise any rules still being evaluated are interrupted and reported with {@link
+         * Severity#NA}.
+         */
+        public Builder reportTimeout(Duration reportTimeout) {
+            this.reportTimeout = requirePositive(reportTimeout);
+            return this;
+        }
+
+        /**
+         * Skip loading event types which are only required by rules that the report's predicate
+         * does not select. This reduces parsing time and memory for filtered reports. Recordings
+         * parsed for a {@link ParsedRecordingCache} are always loaded in full.
+         */
+        public Builder pruneEventTypes(boolean pruneEventTypes) {
+            this.pruneEventTypes = pruneEventTypes;
+            return this;
+        }
+
+        /**
+         * Copy each parsed recording into column storage, with numeric event attributes held in
+         * direct buffers outside of the heap, before its rules are evaluated. Parsing briefly needs
+         * memory for both forms, and rules run somewhat slower since values are materialized as
+         * they are read, but the recording retained while its rules run, or while it is held in a
+         * {@link ParsedRecordingCache}, puts much less pressure on the heap. This helps when
+         * several large reports run at once. The direct buffers are reused once their report
+         * completes or their recording is evicted from the cache, and are charged to the report's
+         * {@link #admissionController} permit.
+         */
+        public Builder offHeapEventStorage(boolean offHeapEventStorage) {
+            this.offHeapEventStorage = offHeapEventStorage;
+            return this;
+        }
+
+        /**
+         * Bound the direct memory used for {@link #offHeapEventStorage}. Events which do not fit
+         * are stored on the heap instead. Defaults to {@link
+         * InterruptibleReportGenerator#DEFAULT_MAX_OFF_HEAP_BYTES}.
+         */
+        public Builder maxOffHeapBytes(long maxOffHeapBytes) {
+            if (maxOffHeapBytes < 0) {
+                throw new IllegalArgumentException("maxOffHeapBytes must not be negative");
+            }
+            this.maxOffHeapBytes = maxOffHeapBytes;
+            return this;
+        }
+
+        /**
+         * Store the result of each rule evaluation, and answer reports entirely from stored results
+         * without loading the recording when every selected rule's result is available. Results are
+         * only stored and looked up for reports given a recording key, which must then identify the
+         * recording's contents, such as a digest of the recording file.
+         */
+        @SuppressFBWarnings(
+                value = "EI_EXPOSE_REP2",
+                justification = "the store is intentionally shared between generators")
+        public Builder resultStore(AnalysisResultStore resultStore) {
+            this.resultStore = resultStore;
+            return this;
+        }
+
+        /**
+         * Admit reports through the given controller before their recordings are loaded, so that
+         * bursts of report requests are queued or rejected rather than all parsed at once. Reports
+         * answered entirely from the {@link #resultStore} are not subject to admission.
+         */
+        public Builder admissionController(ReportAdmissionController admissionController) {
+            this.admissionController = admissionController;
+            return this;
+        }
+
+        /** Report the time and resources spent parsing recordings and evaluating each rule. */
+        public Builder metricsListener(ReportMetricsListener metricsListener) {
+            this.metricsListener = metricsListener;
+            return this;
+        }
+
+        /** Evaluate the given rules instead of the registered rules. */
+        Builder rules(Collection<IRule> rules) {
+            this.rules = List.copyOf(rules);
+            return this;
+        }
+
+        public InterruptibleReportGenerator build() {
+            return new InterruptibleReportGenerator(this);
+        }
+
+        public static Builder create(ExecutorService executor) {
+            return new Builder(executor);
+        }
+
+        private static Duration requirePositive(Duration d) {
+            if (d != null && (d.isNegative() || d.isZero())) {
+                throw new IllegalArgumentException("Timeouts must be positive");
+            }
+            return d;
+        }
+    }
+
     private static String getRuleDependencyName(IRule rule) {
         DependsOn dependency = rule.getClass().getAnnotation(DependsOn.class);
         Class<? extends IRule> dependencyType = dependency.value();
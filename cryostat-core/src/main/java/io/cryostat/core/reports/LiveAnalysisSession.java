@@ -0,0 +1,339 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.reports;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.ItemCollectionToolkit;
+import org.openjdk.jmc.flightrecorder.CouldNotLoadRecordingException;
+import org.openjdk.jmc.flightrecorder.rules.IRule;
+
+import io.cryostat.core.reports.InterruptibleReportGenerator.AnalysisResult;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Continuously analyzes a running recording over a sliding time window. Chunks are fed to the
+ * session as they are completed, for example by periodically passing the stream opened by {@link
+ * io.cryostat.core.net.JmxFlightRecorderService} for the last part of a recording to {@link
+ * #addChunks(InputStream)}. Each chunk is parsed only once, when it is first seen, and chunks which
+ * are seen again in overlapping streams are skipped without being parsed. Chunks which have fallen
+ * out of the window are dropped, so refreshing the results only evaluates rules over the window
+ * rather than re-reading and re-parsing the whole recording. Since chunks are parsed separately,
+ * rules which derive trends from the sequence of samples may score slightly differently than for a
+ * single parse of the same chunks.
+ *
+ * <p>Streams are read and parsed by the generator the same way as a report's recording, so they
+ * count against its {@link ReportAdmissionController} and report timeout. A session should be
+ * closed once it is no longer refreshed, so that chunks stored off the heap are released.
+ */
+public final class LiveAnalysisSession implements AutoCloseable {
+
+    private final InterruptibleReportGenerator generator;
+    private final Predicate<IRule> predicate;
+    private final long windowNanos;
+    // parsed chunks by their start time
+    private final NavigableMap<Long, Chunk> chunks = new TreeMap<>();
+    private long newestEndNanos = Long.MIN_VALUE;
+    private Future<Map<String, AnalysisResult>> latest;
+    private boolean closed;
+
+    /**
+     * @param window how far back from the end of the newest chunk to analyze. Chunks which end
+     *     before the start of the window are dropped.
+     */
+    public LiveAnalysisSession(
+            InterruptibleReportGenerator generator, Predicate<IRule> predicate, Duration window) {
+        this.generator = Objects.requireNonNull(generator);
+        this.predicate = Objects.requireNonNull(predicate);
+        if (window.isNegative() || window.isZero()) {
+            throw new IllegalArgumentException("window must be positive");
+        }
+        this.windowNanos = window.toNanos();
+    }
+
+    /**
+     * Parse the completed chunks in the stream which have not already been added to the session,
+     * and which are not older than the window. A trailing chunk which is still being written is
+     * ignored, since it will be seen again once it is complete. The stream is read on the
+     * generator's parsing executor, so the caller is not blocked by a slow stream. It is read to
+     * its end but not closed, unless the returned future is cancelled or times out.
+     *
+     * @return a future which completes with the number of newly added chunks
+     */
+    public CompletableFuture<Integer> addChunks(InputStream stream) {
+        Objects.requireNonNull(stream);
+        InputStream interruptible = new InterruptibleInputStream(stream);
+        return generator.submitParse(
+                stream, InterruptibleReportGenerator.UNKNOWN_SIZE, () -> readChunks(interruptible));
+    }
+
+    private int readChunks(InputStream stream) throws IOException, CouldNotLoadRecordingException {
+        int added = 0;
+        byte[] header = new byte[ChunkWindowInputStream.HEADER_SIZE];
+        while (ChunkWindowInputStream.readHeader(stream, header)) {
+            long size = ChunkWindowInputStream.chunkSize(header);
+            long startNanos = ChunkWindowInputStream.startNanos(header);
+            if (size < ChunkWindowInputStream.HEADER_SIZE) {
+                break;
+            }
+            long endNanos = startNanos + Math.max(0, ChunkWindowInputStream.durationNanos(header));
+            synchronized (this) {
+                if (chunks.containsKey(startNanos) || endNanos < windowStartNanos()) {
+                    ChunkWindowInputStream.skipFully(
+                            stream, size - ChunkWindowInputStream.HEADER_SIZE);
+                    continue;
+                }
+            }
+            ChunkInputStream chunk =
+                    new ChunkInputStream(header, stream, size - ChunkWindowInputStream.HEADER_SIZE);
+            IItemCollection items;
+            try {
+                items = generator.parseChunk(chunk);
+            } catch (IOException | CouldNotLoadRecordingException e) {
+                if (chunk.isTruncated()) {
+                    // the stream ended before the chunk did
+                    break;
+                }
+                throw e;
+            }
+            if (!chunk.skipRemaining()) {
+                release(items);
+                break;
+            }
+            synchronized (this) {
+                if (!closed && chunks.putIfAbsent(startNanos, new Chunk(items, endNanos)) == null) {
+                    newestEndNanos = Math.max(newestEndNanos, endNanos);
+                    added++;
+                } else {
+                    // added by a concurrent call, or the session was closed while parsing
+                    release(items);
+                }
+            }
+        }
+        if (added > 0) {
+            synchronized (this) {
+                evictChunks();
+                latest = null;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Evaluate the rules over the chunks currently within the window. If no chunks have been added
+     * since the last refresh then the previous results are returned again, unless that analysis
+     * failed or was cancelled.
+     */
+    @SuppressFBWarnings(
+            value = "EI_EXPOSE_REP",
+            justification =
+                    "the same analysis is intentionally shared by each refresh until new"
+                            + " chunks are added")
+    public synchronized Future<Map<String, AnalysisResult>> refresh() {
+        if (latest != null && failed(latest)) {
+            latest = null;
+        }
+        if (latest == null) {
+            List<IItemCollection> window = new ArrayList<>(chunks.size());
+            for (Chunk chunk : chunks.values()) {
+                // chunks may be dropped from the window while their rules are still evaluated
+                retain(chunk.items);
+                window.add(chunk.items);
+            }
+            IItemCollection items =
+                    window.isEmpty()
+                            ? ItemCollectionToolkit.EMPTY
+                            : ItemCollectionToolkit.merge(window::stream);
+            CompletableFuture<Map<String, AnalysisResult>> evaluation =
+                    generator.generateEvalMapInterruptibly(items, predicate);
+            evaluation.whenComplete((v, t) -> window.forEach(LiveAnalysisSession::release));
+            latest = evaluation;
+        }
+        return latest;
+    }
+
+    /**
+     * Drop every chunk. Chunks parsed by {@link #addChunks} calls still in progress are discarded
+     * rather than added, and refreshes still in progress keep the chunks they are evaluating until
+     * they complete.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        chunks.values().forEach(c -> release(c.items));
+        chunks.clear();
+        latest = null;
+    }
+
+    private static boolean failed(Future<?> future) {
+        if (!future.isDone()) {
+            return false;
+        }
+        if (future.isCancelled()) {
+            return true;
+        }
+        try {
+            future.get();
+            return false;
+        } catch (ExecutionException e) {
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return the number of chunks currently within the window
+     */
+    public synchronized int getChunkCount() {
+        return chunks.size();
+    }
+
+    private long windowStartNanos() {
+        return newestEndNanos == Long.MIN_VALUE ? Long.MIN_VALUE : newestEndNanos - windowNanos;
+    }
+
+    private void evictChunks() {
+        long windowStart = windowStartNanos();
+        Iterator<Chunk> it = chunks.values().iterator();
+        while (it.hasNext()) {
+            Chunk chunk = it.next();
+            if (chunk.endNanos < windowStart) {
+                it.remove();
+                release(chunk.items);
+            }
+        }
+    }
+
+    private static void retain(IItemCollection items) {
+        if (items instanceof OffHeapItemCollection) {
+            // cannot fail, since the session still holds its own reference
+            ((OffHeapItemCollection) items).retain();
+        }
+    }
+
+    private static void release(IItemCollection items) {
+        if (items instanceof OffHeapItemCollection) {
+            ((OffHeapItemCollection) items).close();
+        }
+    }
+
+    private static final class Chunk {
+        private final IItemCollection items;
+        private final long endNanos;
+
+        Chunk(IItemCollection items, long endNanos) {
+            this.items = items;
+            this.endNanos = endNanos;
+        }
+    }
+
+    /**
+     * One chunk of a stream, starting with its header which has already been read from the stream.
+     * Closing it does not close the stream, which may hold further chunks.
+     */
+    private static final class ChunkInputStream extends InputStream {
+        private final byte[] header;
+        private final InputStream stream;
+        private int headerPosition;
+        private long remaining;
+        private boolean truncated;
+
+        ChunkInputStream(byte[] header, InputStream stream, long remaining) {
+            this.header = header;
+            this.stream = stream;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (headerPosition < header.length) {
+                return header[headerPosition++] & 0xff;
+            }
+            if (remaining == 0) {
+                return -1;
+            }
+            int b = stream.read();
+            if (b < 0) {
+                truncated = true;
+                return -1;
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            if (len == 0) {
+                return 0;
+            }
+            if (headerPosition < header.length) {
+                int n = Math.min(len, header.length - headerPosition);
+                System.arraycopy(header, headerPosition, b, off, n);
+                headerPosition += n;
+                return n;
+            }
+            if (remaining == 0) {
+                return -1;
+            }
+            int n = stream.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) {
+                truncated = true;
+                return -1;
+            }
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public void close() {}
+
+        boolean isTruncated() {
+            return truncated;
+        }
+
+        /**
+         * Skip whatever the parser did not read of the chunk, so that the stream is positioned at
+         * the next chunk.
+         *
+         * @return false if the stream ended before the chunk did
+         */
+        boolean skipRemaining() throws IOException {
+            byte[] buffer = new byte[8192];
+            while (read(buffer, 0, buffer.length) >= 0) {
+                // discard
+            }
+            return !truncated;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.reports;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import io.cryostat.core.reports.InterruptibleReportGenerator.AnalysisResult;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link AnalysisResultStore} which keeps the most recently used results in memory and, if given a
+ * directory, also writes every result to a file there so that results survive restarts. Results
+ * evicted from memory are read back from the directory when they are next requested.
+ */
+public final class LruAnalysisResultStore implements AnalysisResultStore {
+
+    public static final int DEFAULT_MAX_ENTRIES = 4096;
+
+    private static final String FILE_SUFFIX = ".result";
+
+    private final int maxEntries;
+    private final Path directory;
+    private final Map<String, AnalysisResult> entries;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    public LruAnalysisResultStore() {
+        this(DEFAULT_MAX_ENTRIES, null);
+    }
+
+    /**
+     * @param directory where results are persisted, or null to keep results in memory only. The
+     *     directory is created if it does not exist.
+     */
+    public LruAnalysisResultStore(int maxEntries, Path directory) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.directory = directory;
+        this.entries =
+                new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, AnalysisResult> eldest) {
+                        return size() > LruAnalysisResultStore.this.maxEntries;
+                    }
+                };
+    }
+
+    @Override
+    public Optional<AnalysisResult> get(String key) {
+        Objects.requireNonNull(key);
+        synchronized (entries) {
+            AnalysisResult result = entries.get(key);
+            if (result != null) {
+                return Optional.of(result);
+            }
+        }
+        if (directory == null) {
+            return Optional.empty();
+        }
+        AnalysisResult result = read(key);
+        if (result == null) {
+            return Optional.empty();
+        }
+        synchronized (entries) {
+            entries.putIfAbsent(key, result);
+        }
+        return Optional.of(result);
+    }
+
+    @Override
+    public void put(String key, AnalysisResult result) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(result);
+        synchronized (entries) {
+            entries.put(key, result);
+        }
+        if (directory != null) {
+            write(key, result);
+        }
+    }
+
+    private AnalysisResult read(String key) {
+        Path file = directory.resolve(DigestUtils.sha256Hex(key) + FILE_SUFFIX);
+        try (DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)))) {
+            if (!key.equals(in.readUTF())) {
+                return null;
+            }
+            return AnalysisResult.readFrom(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.warn("Could not read stored result " + file, e);
+            return null;
+        }
+    }
+
+    private void write(String key, AnalysisResult result) {
+        Path file = directory.resolve(DigestUtils.sha256Hex(key) + FILE_SUFFIX);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeUTF(key);
+                result.writeTo(out);
+            }
+            Files.createDirectories(directory);
+            // write to a temporary file first so that a concurrent or interrupted write never
+            // leaves a partial result behind
+            Path tmp = Files.createTempFile(directory, null, ".tmp");
+            try {
+                Files.write(tmp, bytes.toByteArray());
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not store result " + file, e);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.reports;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * Reads a file through read-only memory mappings, so that its contents are served directly from the
+ * page cache rather than copied through an intermediate buffer. Files larger than a single mapping
+ * allows are mapped one region at a time. The file is not opened until it is first read, so a
+ * stream which is closed unread never touches the file.
+ */
+final class MappedFileInputStream extends InputStream {
+
+    static final long MAX_REGION_SIZE = 1L << 30;
+
+    private final Path path;
+    private final long regionSize;
+    private FileChannel channel;
+    private MappedByteBuffer region;
+    private long regionStart;
+    private long size;
+    private boolean closed;
+
+    MappedFileInputStream(Path path) {
+        this(path, MAX_REGION_SIZE);
+    }
+
+    MappedFileInputStream(Path path, long regionSize) {
+        this.path = Objects.requireNonNull(path);
+        if (regionSize < 1 || regionSize > MAX_REGION_SIZE) {
+            throw new IllegalArgumentException("regionSize must be between 1 and 1GiB");
+        }
+        this.regionSize = regionSize;
+    }
+
+    /**
+     * @return the size of the file, or 0 if it cannot be determined
+     */
+    long size() {
+        try {
+            return channel == null ? Files.size(path) : size;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        MappedByteBuffer buf = buffer();
+        if (!buf.hasRemaining()) {
+            return -1;
+        }
+        return buf.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        MappedByteBuffer buf = buffer();
+        int n = Math.min(len, buf.remaining());
+        if (n == 0) {
+            return -1;
+        }
+        buf.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        MappedByteBuffer buf = buffer();
+        long position = regionStart + buf.position();
+        long target = Math.min(size, position + n);
+        if (target < regionStart + buf.limit()) {
+            buf.position((int) (target - regionStart));
+        } else {
+            map(target);
+        }
+        return target - position;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return buffer().remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        region = null;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private MappedByteBuffer buffer() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            size = channel.size();
+            map(0);
+        } else if (!region.hasRemaining() && regionStart + region.limit() < size) {
+            map(regionStart + region.limit());
+        }
+        return region;
+    }
+
+    private void map(long position) throws IOException {
+        // regions are aligned to the region size so that skips within a region do not remap it
+        long start = Math.min(position - position % regionSize, size);
+        long length = Math.min(regionSize, size - start);
+        region = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        region.position((int) (position - start));
+        regionStart = start;
+    }
+}
@@ -0,0 +1,615 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.reports;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmc.common.IDescribable;
+import org.openjdk.jmc.common.item.IAccessorKey;
+import org.openjdk.jmc.common.item.IAggregator;
+import org.openjdk.jmc.common.item.IAttribute;
+import org.openjdk.jmc.common.item.ICanonicalAccessorFactory;
+import org.openjdk.jmc.common.item.IItem;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.IItemConsumer;
+import org.openjdk.jmc.common.item.IItemFilter;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.common.item.IMemberAccessor;
+import org.openjdk.jmc.common.item.IType;
+import org.openjdk.jmc.common.item.ItemIterableToolkit;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.common.unit.IRange;
+import org.openjdk.jmc.common.unit.IUnit;
+import org.openjdk.jmc.common.util.PredicateToolkit;
+
+/**
+ * A parsed recording whose events are stored column by column rather than as one object per event.
+ * Numeric attributes, which make up most of the values in a recording, are stored as primitives in
+ * direct buffers outside of the heap, and attributes with the same value for every event are stored
+ * once. Other attributes, such as threads, stack traces and strings, are stored as references to
+ * the parser's shared constants. Items and quantities are only materialized as they are read, so a
+ * parsed recording retained for the duration of a report puts much less pressure on the heap and
+ * the garbage collector.
+ *
+ * <p>Direct buffers are taken from a bounded {@link Arena}, and are returned to it once every
+ * reference to the collection has been closed, so off-heap memory is reused deterministically
+ * rather than whenever the garbage collector gets to it. A collection starts with one reference,
+ * held by whoever copied it, and must not be read once its last reference is closed. Views of the
+ * collection created by {@link #apply} share its storage and are not closed separately.
+ */
+final class OffHeapItemCollection implements IItemCollection, Closeable {
+
+    private final List<IItemIterable> iterables;
+    private final Set<IRange<IQuantity>> timeRanges;
+    private final Storage storage;
+
+    private OffHeapItemCollection(
+            List<IItemIterable> iterables, Set<IRange<IQuantity>> timeRanges, Storage storage) {
+        this.iterables = Collections.unmodifiableList(iterables);
+        this.timeRanges = Collections.unmodifiableSet(timeRanges);
+        this.storage = storage;
+    }
+
+    /**
+     * Copy a parsed recording into column storage. The event types and the order of events are
+     * preserved, so rules evaluate the copy exactly as they would the original. Numeric columns
+     * which the arena has no room for are stored on the heap instead.
+     */
+    static OffHeapItemCollection copyOf(IItemCollection items, Arena arena) {
+        Storage storage = new Storage(arena);
+        Map<IType<IItem>, ColumnarType> types = new HashMap<>();
+        List<IItemIterable> iterables = new ArrayList<>();
+        try {
+            for (IItemIterable iterable : items) {
+                ColumnarType type = types.computeIfAbsent(iterable.getType(), ColumnarType::new);
+                iterables.add(ColumnarIterable.copyOf(type, iterable, storage));
+            }
+        } catch (RuntimeException | Error e) {
+            storage.release();
+            throw e;
+        }
+        return new OffHeapItemCollection(iterables, items.getUnfilteredTimeRanges(), storage);
+    }
+
+    /**
+     * @return the number of bytes of event data stored outside of the heap
+     */
+    long getOffHeapBytes() {
+        return storage.offHeapBytes();
+    }
+
+    /**
+     * Take another reference to the collection, which must be closed separately.
+     *
+     * @return false if every reference has already been closed, in which case the collection must
+     *     not be read
+     */
+    boolean retain() {
+        return storage.retain();
+    }
+
+    /**
+     * Close one reference to the collection. Closing the last returns its direct buffers to the
+     * arena.
+     */
+    @Override
+    public void close() {
+        storage.release();
+    }
+
+    @Override
+    public Iterator<IItemIterable> iterator() {
+        return iterables.iterator();
+    }
+
+    @Override
+    public IItemCollection apply(IItemFilter filter) {
+        return new OffHeapItemCollection(
+                ItemIterableToolkit.filter(iterables.stream(), filter).collect(Collectors.toList()),
+                timeRanges,
+                storage);
+    }
+
+    @Override
+    public <V, C extends IItemConsumer<C>> V getAggregate(IAggregator<V, C> aggregator) {
+        return ItemIterableToolkit.aggregate(aggregator, iterables.stream());
+    }
+
+    @Override
+    public boolean hasItems() {
+        return iterables.stream().anyMatch(IItemIterable::hasItems);
+    }
+
+    @Override
+    public Set<IRange<IQuantity>> getUnfilteredTimeRanges() {
+        return timeRanges;
+    }
+
+    /**
+     * Mirrors a parsed event type, but provides accessors which read from the columns of the items
+     * of this type. Every column of the type is stored at the same position in each iterable.
+     */
+    private static final class ColumnarType implements IType<IItem> {
+        private final IType<IItem> delegate;
+        private final List<IAccessorKey<?>> keys;
+        private final Map<IAccessorKey<?>, ColumnAccessor<?>> accessors = new HashMap<>();
+
+        ColumnarType(IType<IItem> delegate) {
+            this.delegate = delegate;
+            this.keys = new ArrayList<>(delegate.getAccessorKeys().keySet());
+            for (int i = 0; i < keys.size(); i++) {
+                accessors.put(keys.get(i), new ColumnAccessor<>(i));
+            }
+        }
+
+        @Override
+        public String getName() {
+            return delegate.getName();
+        }
+
+        @Override
+        public String getDescription() {
+            return delegate.getDescription();
+        }
+
+        @Override
+        public String getIdentifier() {
+            return delegate.getIdentifier();
+        }
+
+        @Override
+        public List<IAttribute<?>> getAttributes() {
+            return delegate.getAttributes();
+        }
+
+        @Override
+        public Map<IAccessorKey<?>, ? extends IDescribable> getAccessorKeys() {
+            return delegate.getAccessorKeys();
+        }
+
+        @Override
+        public boolean hasAttribute(ICanonicalAccessorFactory<?> attribute) {
+            return delegate.hasAttribute(attribute);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <M> IMemberAccessor<M, IItem> getAccessor(IAccessorKey<M> key) {
+            return (IMemberAccessor<M, IItem>) accessors.get(key);
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+
+    private static final class ColumnAccessor<M> implements IMemberAccessor<M, IItem> {
+        private final int column;
+
+        ColumnAccessor(int column) {
+            this.column = column;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public M getMember(IItem item) {
+            ColumnarItem columnar = (ColumnarItem) item;
+            return (M) columnar.columns[column].get(columnar.row);
+        }
+    }
+
+    private static final class ColumnarIterable implements IItemIterable {
+        private final ColumnarType type;
+        private final Column[] columns;
+        // the rows selected by filters applied to this iterable, or null for all rows
+        private final int[] rows;
+        private final int size;
+
+        private ColumnarIterable(ColumnarType type, Column[] columns, int[] rows, int size) {
+            this.type = type;
+            this.columns = columns;
+            this.rows = rows;
+            this.size = size;
+        }
+
+        static ColumnarIterable copyOf(ColumnarType type, IItemIterable iterable, Storage storage) {
+            List<IItem> items = new ArrayList<>();
+            iterable.forEach(items::add);
+            Column[] columns = new Column[type.keys.size()];
+            for (int i = 0; i < columns.length; i++) {
+                IMemberAccessor<?, IItem> accessor = type.delegate.getAccessor(type.keys.get(i));
+                Object[] values = new Object[items.size()];
+                if (accessor != null) {
+                    for (int row = 0; row < values.length; row++) {
+                        values[row] = accessor.getMember(items.get(row));
+                    }
+                }
+                columns[i] = Column.of(values, storage);
+            }
+            return new ColumnarIterable(type, columns, null, items.size());
+        }
+
+        @Override
+        public IType<IItem> getType() {
+            return type;
+        }
+
+        @Override
+        public boolean hasItems() {
+            return size > 0;
+        }
+
+        @Override
+        public long getItemCount() {
+            return size;
+        }
+
+        @Override
+        public IItemIterable apply(Predicate<IItem> predicate) {
+            if (PredicateToolkit.isTrueGuaranteed(predicate)) {
+                return this;
+            }
+            if (PredicateToolkit.isFalseGuaranteed(predicate)) {
+                return new ColumnarIterable(type, columns, new int[0], 0);
+            }
+            int[] selected = new int[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                int row = rows == null ? i : rows[i];
+                if (predicate.test(new ColumnarItem(type, columns, row))) {
+                    selected[count++] = row;
+                }
+            }
+            return new ColumnarIterable(type, columns, Arrays.copyOf(selected, count), count);
+        }
+
+        @Override
+        public Iterator<IItem> iterator() {
+            return new Iterator<>() {
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < size;
+                }
+
+                @Override
+                public IItem next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    int row = rows == null ? next : rows[next];
+                    next++;
+                    return new ColumnarItem(type, columns, row);
+                }
+            };
+        }
+    }
+
+    /**
+     * A view of one row of an iterable's columns. Items are created as they are read, so two views
+     * of the same row are equal even though they are different objects.
+     */
+    private static final class ColumnarItem implements IItem {
+        private final ColumnarType type;
+        private final Column[] columns;
+        private final int row;
+
+        ColumnarItem(ColumnarType type, Column[] columns, int row) {
+            this.type = type;
+            this.columns = columns;
+            this.row = row;
+        }
+
+        @Override
+        public IType<?> getType() {
+            return type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ColumnarItem)) {
+                return false;
+            }
+            ColumnarItem other = (ColumnarItem) o;
+            return columns == other.columns && row == other.row;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(columns) * 31 + row;
+        }
+    }
+
+    private abstract static class Column {
+        abstract Object get(int row);
+
+        static Column of(Object[] values, Storage storage) {
+            if (values.length == 0) {
+                return new ConstantColumn(null);
+            }
+            boolean constant = true;
+            boolean numeric = true;
+            boolean integral = true;
+            IUnit unit = null;
+            for (Object value : values) {
+                constant &= value == values[0];
+                if (value == null) {
+                    continue;
+                }
+                if (!(value instanceof IQuantity)) {
+                    numeric = false;
+                    continue;
+                }
+                IQuantity quantity = (IQuantity) value;
+                if (unit == null) {
+                    unit = quantity.getUnit();
+                }
+                numeric &= unit.equals(quantity.getUnit());
+                Number number = quantity.numberValue();
+                integral &=
+                        number instanceof Long
+                                || number instanceof Integer
+                                || number instanceof Short
+                                || number instanceof Byte;
+            }
+            if (constant) {
+                return new ConstantColumn(values[0]);
+            }
+            if (!numeric || unit == null) {
+                return new ReferenceColumn(values);
+            }
+            ByteBuffer[] blocks = storage.allocate((long) values.length * Long.BYTES);
+            BitSet nulls = null;
+            for (int row = 0; row < values.length; row++) {
+                IQuantity quantity = (IQuantity) values[row];
+                if (quantity == null) {
+                    if (nulls == null) {
+                        nulls = new BitSet(values.length);
+                    }
+                    nulls.set(row);
+                } else if (integral) {
+                    blocks[block(row)].putLong(offset(row), quantity.longValue());
+                } else {
+                    blocks[block(row)].putDouble(offset(row), quantity.doubleValue());
+                }
+            }
+            return integral
+                    ? new LongColumn(blocks, unit, nulls)
+                    : new DoubleColumn(blocks, unit, nulls);
+        }
+
+        static int block(int row) {
+            return row / Arena.ROWS_PER_BLOCK;
+        }
+
+        static int offset(int row) {
+            return (row % Arena.ROWS_PER_BLOCK) * Long.BYTES;
+        }
+    }
+
+    private static final class ConstantColumn extends Column {
+        private final Object value;
+
+        ConstantColumn(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object get(int row) {
+            return value;
+        }
+    }
+
+    private static final class ReferenceColumn extends Column {
+        private final Object[] values;
+
+        ReferenceColumn(Object[] values) {
+            this.values = values;
+        }
+
+        @Override
+        Object get(int row) {
+            return values[row];
+        }
+    }
+
+    /**
+     * One value per row, stored in consecutive blocks of {@link Arena#ROWS_PER_BLOCK} values. Only
+     * the last block may be shorter.
+     */
+    private abstract static class NumericColumn extends Column {
+        final ByteBuffer[] blocks;
+        final IUnit unit;
+        private final BitSet nulls;
+
+        NumericColumn(ByteBuffer[] blocks, IUnit unit, BitSet nulls) {
+            this.blocks = blocks;
+            this.unit = unit;
+            this.nulls = nulls;
+        }
+
+        @Override
+        Object get(int row) {
+            return nulls != null && nulls.get(row)
+                    ? null
+                    : quantity(blocks[block(row)], offset(row));
+        }
+
+        abstract IQuantity quantity(ByteBuffer block, int offset);
+    }
+
+    private static final class LongColumn extends NumericColumn {
+        LongColumn(ByteBuffer[] blocks, IUnit unit, BitSet nulls) {
+            super(blocks, unit, nulls);
+        }
+
+        @Override
+        IQuantity quantity(ByteBuffer block, int offset) {
+            return unit.quantity(block.getLong(offset));
+        }
+    }
+
+    private static final class DoubleColumn extends NumericColumn {
+        DoubleColumn(ByteBuffer[] blocks, IUnit unit, BitSet nulls) {
+            super(blocks, unit, nulls);
+        }
+
+        @Override
+        IQuantity quantity(ByteBuffer block, int offset) {
+            return unit.quantity(block.getDouble(offset));
+        }
+    }
+
+    /**
+     * The direct buffers of one copied collection, and the number of open references to it. The
+     * buffers are returned to the arena when the last reference is closed.
+     */
+    private static final class Storage {
+        private final Arena arena;
+        private final List<ByteBuffer> direct = new ArrayList<>();
+        private int references = 1;
+
+        Storage(Arena arena) {
+            this.arena = arena;
+        }
+
+        /**
+         * Columns of at least one full block are allocated from the arena if it has room for them.
+         * Smaller columns would waste most of a block, so they are kept on the heap.
+         */
+        ByteBuffer[] allocate(long bytes) {
+            int count = (int) ((bytes + Arena.BLOCK_BYTES - 1) / Arena.BLOCK_BYTES);
+            ByteBuffer[] blocks = bytes < Arena.BLOCK_BYTES ? null : arena.allocate(count);
+            if (blocks != null) {
+                synchronized (this) {
+                    direct.addAll(Arrays.asList(blocks));
+                }
+                return blocks;
+            }
+            blocks = new ByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                blocks[i] =
+                        ByteBuffer.allocate(
+                                (int)
+                                        Math.min(
+                                                Arena.BLOCK_BYTES,
+                                                bytes - (long) i * Arena.BLOCK_BYTES));
+            }
+            return blocks;
+        }
+
+        synchronized long offHeapBytes() {
+            return (long) direct.size() * Arena.BLOCK_BYTES;
+        }
+
+        synchronized boolean retain() {
+            if (references == 0) {
+                return false;
+            }
+            references++;
+            return true;
+        }
+
+        void release() {
+            List<ByteBuffer> freed;
+            synchronized (this) {
+                if (references == 0 || --references > 0) {
+                    return;
+                }
+                freed = new ArrayList<>(direct);
+                direct.clear();
+            }
+            arena.free(freed);
+        }
+    }
+
+    /**
+     * A bounded pool of fixed size direct buffers, from which the numeric columns of copied
+     * collections are allocated. Buffers are allocated lazily and kept for reuse once their
+     * collection is closed, so the arena never holds more direct memory than its capacity. An arena
+     * may be shared by any number of collections.
+     */
+    static final class Arena {
+        static final int BLOCK_BYTES = 32 * 1024;
+        static final int ROWS_PER_BLOCK = BLOCK_BYTES / Long.BYTES;
+
+        private final long maxBlocks;
+        private final Deque<ByteBuffer> free = new ArrayDeque<>();
+        private long allocatedBlocks;
+
+        Arena(long maxBytes) {
+            if (maxBytes < 0) {
+                throw new IllegalArgumentException("maxBytes must not be negative");
+            }
+            this.maxBlocks = maxBytes / BLOCK_BYTES;
+        }
+
+        /**
+         * @return the blocks, or null if the arena does not have room for all of them
+         */
+        synchronized ByteBuffer[] allocate(int count) {
+            if (free.size() + (maxBlocks - allocatedBlocks) < count) {
+                return null;
+            }
+            ByteBuffer[] blocks = new ByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                ByteBuffer block = free.pollFirst();
+                if (block == null) {
+                    block = ByteBuffer.allocateDirect(BLOCK_BYTES);
+                    allocatedBlocks++;
+                }
+                blocks[i] = block;
+            }
+            return blocks;
+        }
+
+        synchronized void free(Collection<ByteBuffer> blocks) {
+            free.addAll(blocks);
+        }
+
+        /**
+         * @return the number of direct bytes held by open collections
+         */
+        synchronized long getUsedBytes() {
+            return (allocatedBlocks - free.size()) * BLOCK_BYTES;
+        }
+
+        /**
+         * @return the number of direct bytes allocated by the arena, whether in use or free
+         */
+        synchronized long getAllocatedBytes() {
+            return allocatedBlocks * BLOCK_BYTES;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.reports;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.util.Pair;
+
+/**
+ * Size-bounded cache of parsed recordings, so that repeated report requests for the same recording
+ * (for example with different rule filters) can skip parsing it again. Entries are keyed by a
+ * caller-supplied recording key and weighed by the number of recording bytes that were parsed to
+ * produce them. The least recently used entries are evicted once either bound is exceeded.
+ *
+ * <p>Concurrent requests for a key which is still being parsed share the same in-flight parse.
+ *
+ * <p>Parsed recordings stored outside of the heap are {@link OffHeapItemCollection reference
+ * counted}. The cache holds one reference to each entry, which is closed when the entry is evicted
+ * or invalidated, and each request is given a reference of its own, which the requester must close
+ * once it no longer reads the recording.
+ */
+public final class ParsedRecordingCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 8;
+    public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    public ParsedRecordingCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    public ParsedRecordingCache(int maxEntries, long maxBytes) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    CompletableFuture<Pair<IItemCollection, Long>> computeIfAbsent(
+            String key, Supplier<CompletableFuture<Pair<IItemCollection, Long>>> loader) {
+        Objects.requireNonNull(key);
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null) {
+                share(entry);
+                return entry.future;
+            }
+            entry = new Entry();
+            entries.put(key, entry);
+            evict();
+        }
+        Entry loading = entry;
+        CompletableFuture<Pair<IItemCollection, Long>> loaded;
+        try {
+            loaded = loader.get();
+        } catch (RuntimeException e) {
+            // such as a RejectedExecutionException from the parsing executor. The entry must not
+            // be left behind, or later requests for the key would wait on it forever.
+            remove(key, loading);
+            loading.future.completeExceptionally(e);
+            return loading.future;
+        }
+        loaded.whenComplete(
+                (parsed, t) -> {
+                    if (t != null) {
+                        remove(key, loading);
+                        loading.future.completeExceptionally(t);
+                    } else {
+                        weigh(key, loading, parsed);
+                        loading.future.complete(parsed);
+                    }
+                });
+        return loading.future;
+    }
+
+    public synchronized boolean contains(String key) {
+        Entry entry = entries.get(key);
+        return entry != null && entry.future.isDone() && !entry.future.isCompletedExceptionally();
+    }
+
+    public synchronized void invalidate(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            discard(entry);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        entries.values().forEach(this::discard);
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long weight() {
+        return totalBytes;
+    }
+
+    private synchronized void remove(String key, Entry entry) {
+        if (entries.remove(key, entry)) {
+            discard(entry);
+        }
+    }
+
+    private synchronized void weigh(String key, Entry entry, Pair<IItemCollection, Long> parsed) {
+        entry.parsed = parsed;
+        // the requests which shared the parse while it was in flight, including the one which
+        // started it
+        for (; entry.users > 0; entry.users--) {
+            retain(parsed.left);
+        }
+        if (entries.get(key) != entry) {
+            // evicted or invalidated while it was being parsed
+            release(parsed.left);
+            return;
+        }
+        entry.bytes = parsed.right;
+        totalBytes += parsed.right;
+        evict();
+    }
+
+    private void share(Entry entry) {
+        if (entry.parsed != null) {
+            retain(entry.parsed.left);
+        } else {
+            entry.users++;
+        }
+    }
+
+    private void discard(Entry entry) {
+        totalBytes -= entry.bytes;
+        if (entry.parsed != null) {
+            release(entry.parsed.left);
+        }
+    }
+
+    private static void retain(IItemCollection items) {
+        if (items instanceof OffHeapItemCollection) {
+            // cannot fail, since the cache still holds its own reference
+            ((OffHeapItemCollection) items).retain();
+        }
+    }
+
+    private static void release(IItemCollection items) {
+        if (items instanceof OffHeapItemCollection) {
+            ((OffHeapItemCollection) items).close();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        // the most recently used entry is never evicted, even if it alone exceeds the byte bound,
+        // so that the request which produced it can still share it with concurrent requests
+        while ((entries.size() > maxEntries || totalBytes > maxBytes) && entries.size() > 1) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            discard(eldest);
+        }
+    }
+
+    private static class Entry {
+        final CompletableFuture<Pair<IItemCollection, Long>> future = new CompletableFuture<>();
+        long bytes;
+        // set once parsed, under the cache's lock
+        Pair<IItemCollection, Long> parsed;
+        // requests given the future before it was parsed, which have yet to be given a reference
+        int users = 1;
+    }
+}
@@ -23,8 +23,6 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.RunnableFuture;
 
-import org.openjdk.jmc.common.item.Aggregators;
-import org.openjdk.jmc.common.item.IItem;
 import org.openjdk.jmc.common.item.IItemCollection;
 import org.openjdk.jmc.common.item.ItemFilters;
 import org.openjdk.jmc.common.unit.IQuantity;
@@ -83,10 +81,36 @@ public class QuarkusRestRule implements IRule {
                     "The average duration of all REST responses.",
                     UnitLookup.TIMESPAN,
                     IQuantity.class);
+    public static final TypedResult<IQuantity> P50_REST_RESPONSE =
+            new TypedResult<>(
+                    "p50RestResponse",
+                    "Median REST response",
+                    "The 50th percentile duration of all REST responses.",
+                    UnitLookup.TIMESPAN,
+                    IQuantity.class);
+    public static final TypedResult<IQuantity> P95_REST_RESPONSE =
+            new TypedResult<>(
+                    "p95RestResponse",
+                    "95th percentile REST response",
+                    "The 95th percentile duration of all REST responses.",
+                    UnitLookup.TIMESPAN,
+                    IQuantity.class);
+    public static final TypedResult<IQuantity> P99_REST_RESPONSE =
+            new TypedResult<>(
+                    "p99RestResponse",
+                    "99th percentile REST response",
+                    "The 99th percentile duration of all REST responses.",
+                    UnitLookup.TIMESPAN,
+                    IQuantity.class);
 
     private static final Collection<TypedResult<?>> RESULT_ATTRIBUTES =
             Arrays.<TypedResult<?>>asList(
-                    TypedResult.SCORE, LONGEST_RESPONSE_TIME, AVERAGE_REST_RESPONSE);
+                    TypedResult.SCORE,
+                    LONGEST_RESPONSE_TIME,
+                    AVERAGE_REST_RESPONSE,
+                    P50_REST_RESPONSE,
+                    P95_REST_RESPONSE,
+                    P99_REST_RESPONSE);
 
     private static final Map<String, EventAvailability> REQUIRED_EVENTS =
             RequiredEventsBuilder.create()
@@ -113,18 +137,21 @@ public class QuarkusRestRule implements IRule {
             IItemCollection items, IPreferenceValueProvider vp, IResultValueProvider rp) {
         IQuantity infoLimit = vp.getPreferenceValue(WRITE_INFO_LIMIT);
         IQuantity warningLimit = vp.getPreferenceValue(WRITE_WARNING_LIMIT);
-        items = items.apply(ItemFilters.type(EVENT_TYPE_ID));
-        IItem longestEvent = items.getAggregate(Aggregators.itemWithMax(JfrAttributes.DURATION));
+        // a single pass over the events collects the max, average and percentiles together
+        DurationHistogram durations =
+                items.apply(ItemFilters.type(EVENT_TYPE_ID))
+                        .getAggregate(DurationHistogram.aggregator(JfrAttributes.DURATION));
         // We had events, but all got filtered out - say ok, duration 0. Perhaps say "no matching"
         // or something similar.
-        if (longestEvent == null) {
+        if (durations == null) {
             return ResultBuilder.createFor(this, vp)
                     .setSeverity(Severity.OK)
                     .setSummary("There are no Quarkus REST events in this recording.")
                     .build();
         }
 
-        IQuantity maxDuration = RulesToolkit.getValue(longestEvent, JfrAttributes.DURATION);
+        IQuantity maxDuration = durations.getMax();
+        IQuantity avgDuration = durations.getAverage();
         double score =
                 RulesToolkit.mapExp100(
                         maxDuration.doubleValueIn(UnitLookup.SECOND),
@@ -133,8 +160,6 @@ public class QuarkusRestRule implements IRule {
 
         Severity severity = Severity.get(score);
         if (severity == Severity.WARNING || severity == Severity.INFO) {
-            IQuantity avgDuration =
-                    items.getAggregate(Aggregators.avg(EVENT_TYPE_ID, JfrAttributes.DURATION));
             return ResultBuilder.createFor(this, vp)
                     .setSeverity(severity)
                     .setSummary(
@@ -142,10 +167,15 @@ public class QuarkusRestRule implements IRule {
                                     + " {longestResponseTime}).")
                     .setExplanation(
                             "The longest REST response took {longestResponseTime}. Average response"
-                                    + " time: {averageRestResponse}.")
+                                    + " time: {averageRestResponse}. Median response time:"
+                                    + " {p50RestResponse}, 95th percentile: {p95RestResponse},"
+                                    + " 99th percentile: {p99RestResponse}.")
                     .addResult(TypedResult.SCORE, UnitLookup.NUMBER_UNITY.quantity(score))
                     .addResult(AVERAGE_REST_RESPONSE, avgDuration)
                     .addResult(LONGEST_RESPONSE_TIME, maxDuration)
+                    .addResult(P50_REST_RESPONSE, durations.getPercentile(50))
+                    .addResult(P95_REST_RESPONSE, durations.getPercentile(95))
+                    .addResult(P99_REST_RESPONSE, durations.getPercentile(99))
                     .build();
         }
         return ResultBuilder.createFor(this, vp)
@@ -154,7 +184,11 @@ public class QuarkusRestRule implements IRule {
                         "No long REST responses were found in this recording (the longest was"
                                 + " {longestResponseTime}).")
                 .addResult(TypedResult.SCORE, UnitLookup.NUMBER_UNITY.quantity(score))
+                .addResult(AVERAGE_REST_RESPONSE, avgDuration)
                 .addResult(LONGEST_RESPONSE_TIME, maxDuration)
+                .addResult(P50_REST_RESPONSE, durations.getPercentile(50))
+                .addResult(P95_REST_RESPONSE, durations.getPercentile(95))
+                .addResult(P99_REST_RESPONSE, durations.getPercentile(99))
                 .build();
     }
 
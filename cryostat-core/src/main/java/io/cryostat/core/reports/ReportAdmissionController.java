@@ -0,0 +1,240 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.reports;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Limits how many reports may load and evaluate recordings at once, both by count and by the
+ * estimated number of recording bytes in flight, so that a burst of report requests cannot hold
+ * more parsed recordings in memory than the JVM can afford. Reports which cannot be admitted
+ * immediately wait in first-come, first-served order. Once the wait queue is full, further reports
+ * are rejected with a {@link ReportRejectedException}.
+ *
+ * <p>A single controller may be shared by several {@link InterruptibleReportGenerator}s to apply
+ * one budget across all of them.
+ */
+public final class ReportAdmissionController {
+
+    private final int maxConcurrentReports;
+    private final long maxBytesInFlight;
+    private final int maxQueuedReports;
+    private final long unknownSizeBytes;
+    private final Deque<Waiter> queue = new ArrayDeque<>();
+    private int activeReports;
+    private long bytesInFlight;
+
+    /**
+     * Reports whose recording size is not known are charged an even share of the byte budget,
+     * {@code maxBytesInFlight / maxConcurrentReports}.
+     *
+     * @see #ReportAdmissionController(int, long, int, long)
+     */
+    public ReportAdmissionController(
+            int maxConcurrentReports, long maxBytesInFlight, int maxQueuedReports) {
+        this(
+                maxConcurrentReports,
+                maxBytesInFlight,
+                maxQueuedReports,
+                Math.max(1, maxBytesInFlight / Math.max(1, maxConcurrentReports)));
+    }
+
+    /**
+     * @param maxBytesInFlight a report whose estimated size alone exceeds this is still admitted,
+     *     but only once no other reports are in flight
+     * @param maxQueuedReports how many reports may wait for admission. May be 0 to reject reports
+     *     as soon as the limits are reached.
+     * @param unknownSizeBytes the number of bytes charged for a report whose recording size is not
+     *     known, such as one read from a network stream without a length
+     */
+    public ReportAdmissionController(
+            int maxConcurrentReports,
+            long maxBytesInFlight,
+            int maxQueuedReports,
+            long unknownSizeBytes) {
+        if (maxConcurrentReports < 1) {
+            throw new IllegalArgumentException("maxConcurrentReports must be positive");
+        }
+        if (maxBytesInFlight < 1) {
+            throw new IllegalArgumentException("maxBytesInFlight must be positive");
+        }
+        if (maxQueuedReports < 0) {
+            throw new IllegalArgumentException("maxQueuedReports must not be negative");
+        }
+        if (unknownSizeBytes < 0) {
+            throw new IllegalArgumentException("unknownSizeBytes must not be negative");
+        }
+        this.maxConcurrentReports = maxConcurrentReports;
+        this.maxBytesInFlight = maxBytesInFlight;
+        this.maxQueuedReports = maxQueuedReports;
+        this.unknownSizeBytes = unknownSizeBytes;
+    }
+
+    /**
+     * @param estimatedBytes the size of the report's recording, or a negative number if it is not
+     *     known
+     * @return a future which completes with a permit once the report is admitted, or fails with a
+     *     {@link ReportRejectedException} if it cannot be queued. If the future is completed by the
+     *     caller before then, the report is withdrawn from the queue.
+     */
+    CompletableFuture<Permit> acquire(long estimatedBytes) {
+        long bytes = estimatedBytes < 0 ? unknownSizeBytes : estimatedBytes;
+        CompletableFuture<Permit> admission = new CompletableFuture<>();
+        Waiter waiter = null;
+        synchronized (this) {
+            if (queue.isEmpty() && fits(bytes)) {
+                activeReports++;
+                bytesInFlight += bytes;
+            } else if (queue.size() < maxQueuedReports) {
+                waiter = new Waiter(bytes, admission);
+                queue.addLast(waiter);
+            } else {
+                admission.completeExceptionally(
+                        new ReportRejectedException(
+                                String.format(
+                                        "Report rejected: %d reports (%d bytes) in flight and %d"
+                                                + " queued",
+                                        activeReports, bytesInFlight, queue.size())));
+                return admission;
+            }
+        }
+        if (waiter == null) {
+            admission.complete(new Permit(bytes));
+        } else {
+            Waiter queued = waiter;
+            admission.whenComplete(
+                    (p, t) -> {
+                        if (t != null) {
+                            withdraw(queued);
+                        }
+                    });
+        }
+        return admission;
+    }
+
+    public synchronized int getActiveReports() {
+        return activeReports;
+    }
+
+    public synchronized long getBytesInFlight() {
+        return bytesInFlight;
+    }
+
+    public synchronized int getQueuedReports() {
+        return queue.size();
+    }
+
+    private boolean fits(long bytes) {
+        if (activeReports >= maxConcurrentReports) {
+            return false;
+        }
+        return activeReports == 0 || bytesInFlight + bytes <= maxBytesInFlight;
+    }
+
+    private void withdraw(Waiter waiter) {
+        boolean removed;
+        synchronized (this) {
+            removed = queue.remove(waiter);
+        }
+        if (removed) {
+            // reports queued behind this one may fit now
+            admitQueued();
+        }
+    }
+
+    private synchronized void charge(Permit permit, long extraBytes) {
+        if (!permit.released) {
+            permit.bytes += extraBytes;
+            bytesInFlight += extraBytes;
+        }
+    }
+
+    private void release(Permit permit) {
+        synchronized (this) {
+            if (permit.released) {
+                return;
+            }
+            permit.released = true;
+            activeReports--;
+            bytesInFlight -= permit.bytes;
+        }
+        admitQueued();
+    }
+
+    private void admitQueued() {
+        List<Waiter> admitted = new ArrayList<>();
+        synchronized (this) {
+            // only the head of the queue is considered, so that a large report cannot be starved
+            // by smaller ones queued behind it
+            while (!queue.isEmpty() && fits(queue.peekFirst().bytes)) {
+                Waiter waiter = queue.removeFirst();
+                activeReports++;
+                bytesInFlight += waiter.bytes;
+                admitted.add(waiter);
+            }
+        }
+        for (Waiter waiter : admitted) {
+            Permit permit = new Permit(waiter.bytes);
+            if (!waiter.admission.complete(permit)) {
+                // withdrawn after it was admitted
+                permit.release();
+            }
+        }
+    }
+
+    final class Permit {
+        // guarded by the controller
+        private long bytes;
+        private boolean released;
+
+        private Permit(long bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * Charge memory which the report holds in addition to its recording, such as parsed events
+         * stored outside of the heap, until the permit is released. This may take the controller
+         * over its byte budget, in which case further reports wait until the permit is released.
+         */
+        void charge(long extraBytes) {
+            ReportAdmissionController.this.charge(this, extraBytes);
+        }
+
+        void release() {
+            ReportAdmissionController.this.release(this);
+        }
+    }
+
+    private static class Waiter {
+        final long bytes;
+        final CompletableFuture<Permit> admission;
+
+        Waiter(long bytes, CompletableFuture<Permit> admission) {
+            this.bytes = bytes;
+            this.admission = admission;
+        }
+    }
+
+    public static class ReportRejectedException extends RuntimeException {
+        public ReportRejectedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.reports;
+
+/**
+ * Receives resource usage measurements from an {@link InterruptibleReportGenerator}, for example to
+ * export them as metrics and find out which rules are expensive for a given workload's recordings.
+ * Methods may be called concurrently from parsing and rule evaluation threads, so implementations
+ * must be thread-safe and should return quickly.
+ */
+public interface ReportMetricsListener {
+
+    /**
+     * Called after a recording has been parsed. Reports which reuse a cached parse do not parse the
+     * recording again, so this is not called for them.
+     *
+     * @param bytesRead the number of recording bytes that were read
+     */
+    default void recordingParsed(long bytesRead, long wallNanos) {}
+
+    /**
+     * Called after each rule evaluation, including evaluations which failed or were interrupted.
+     * Rules which are not evaluated, for example because they are filtered out or their required
+     * events are not available, are not reported.
+     *
+     * @param cpuNanos CPU time spent by the evaluating thread, or -1 if the JVM does not support
+     *     measuring it
+     * @param allocatedBytes heap bytes allocated by the evaluating thread, or -1 if the JVM does
+     *     not support measuring it
+     */
+    default void ruleEvaluated(String ruleId, long wallNanos, long cpuNanos, long allocatedBytes) {}
+}
@@ -18,11 +18,18 @@ package io.cryostat.core.util;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -38,27 +45,48 @@ public class RuleFilterParser {
     public static final String ALL_WILDCARD_TOKEN = "*";
     public static final String NEGATION_PREFIX_TOKEN = "!";
 
+    // bounds the memory used by compiled filters if callers pass many distinct filter strings
+    static final int MAX_CACHED_FILTERS = 256;
+
+    private static volatile RuleIndex registryIndex;
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private final Set<String> ruleIds;
-    private final Set<String> ruleTopics;
+    private final RuleIndex index;
 
     RuleFilterParser(Set<String> rules, Set<String> topics) {
-        this.ruleIds = rules;
-        this.ruleTopics = topics;
+        this.index = new RuleIndex(List.of(), rules, topics);
     }
 
     public RuleFilterParser() {
-        this.ruleIds =
-                RuleRegistry.getRules().stream()
-                        .map(rule -> rule.getId())
-                        .collect(Collectors.toSet());
-        this.ruleTopics =
-                RuleRegistry.getRules().stream()
-                        .map(rule -> rule.getTopic())
-                        .collect(Collectors.toSet());
+        this.index = registryIndex();
     }
 
+    private static RuleIndex registryIndex() {
+        RuleIndex index = registryIndex;
+        if (index == null) {
+            synchronized (RuleFilterParser.class) {
+                index = registryIndex;
+                if (index == null) {
+                    Collection<IRule> rules = RuleRegistry.getRules();
+                    index =
+                            new RuleIndex(
+                                    rules,
+                                    rules.stream().map(IRule::getId).collect(Collectors.toSet()),
+                                    rules.stream()
+                                            .map(IRule::getTopic)
+                                            .collect(Collectors.toSet()));
+                    registryIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Compile a filter into a predicate. Compiled filters are cached by their normalized form, and
+     * for the rules in the {@link RuleRegistry} testing the predicate is a single bit lookup.
+     */
     public Predicate<IRule> parse(String rawFilter) {
         if (StringUtils.isBlank(rawFilter)) {
             return (r) -> true;
@@ -67,33 +95,117 @@ public class RuleFilterParser {
         keys.addAll(
                 Arrays.asList(rawFilter.split(",")).stream()
                         .map(String::strip)
+                        .map(RuleFilterParser::normalize)
                         .collect(Collectors.toSet()));
-        Predicate<IRule> combinedPredicate = (r) -> false;
+        String normalized = String.join(",", keys);
+        CompiledFilter filter = index.compiled.get(normalized);
+        if (filter == null) {
+            filter = compile(keys);
+            if (index.compiled.size() >= MAX_CACHED_FILTERS) {
+                index.compiled.clear();
+            }
+            CompiledFilter existing = index.compiled.putIfAbsent(normalized, filter);
+            if (existing != null) {
+                filter = existing;
+            }
+        }
+        return filter;
+    }
+
+    private CompiledFilter compile(SortedSet<String> keys) {
+        CompiledFilter filter = new CompiledFilter(index);
         for (String key : keys) {
             boolean negated = key.startsWith(NEGATION_PREFIX_TOKEN);
             if (negated) {
                 key = key.substring(1);
             }
-            final String fKey = key;
-            Predicate<IRule> predicate;
-            if (ALL_WILDCARD_TOKEN.equals(fKey)) {
-                predicate = (rule) -> true;
-            } else if (ruleIds.stream().anyMatch(key::equalsIgnoreCase)) {
-                predicate = (rule) -> rule.getId().equalsIgnoreCase(fKey);
-            } else if (ruleTopics.stream().anyMatch(key::equalsIgnoreCase)) {
-                predicate = (rule) -> rule.getTopic().equalsIgnoreCase(fKey);
+            Set<String> target;
+            if (ALL_WILDCARD_TOKEN.equals(key)) {
+                if (negated) {
+                    filter.excludeAll = true;
+                } else {
+                    filter.includeAll = true;
+                }
+                continue;
+            } else if (index.ruleIds.contains(key)) {
+                target = negated ? filter.excludedIds : filter.includedIds;
+            } else if (index.ruleTopics.contains(key)) {
+                target = negated ? filter.excludedTopics : filter.includedTopics;
             } else {
                 logger.warn(
                         "Filter \"{}\" did not match any known rule IDs or topics, ignoring.", key);
                 continue;
             }
-            if (negated) {
-                combinedPredicate = combinedPredicate.and(predicate.negate());
-            } else {
-                combinedPredicate = combinedPredicate.or(predicate);
+            target.add(key);
+        }
+        for (int i = 0; i < index.rules.size(); i++) {
+            if (filter.matches(index.rules.get(i))) {
+                filter.selected.set(i);
+            }
+        }
+        return filter;
+    }
+
+    // rule IDs and topics are matched case-insensitively
+    private static String normalize(String s) {
+        return s.toLowerCase(Locale.ROOT);
+    }
+
+    private static class RuleIndex {
+        private final List<IRule> rules;
+        private final Map<IRule, Integer> positions = new IdentityHashMap<>();
+        private final Set<String> ruleIds;
+        private final Set<String> ruleTopics;
+        private final Map<String, CompiledFilter> compiled = new ConcurrentHashMap<>();
+
+        RuleIndex(Collection<IRule> rules, Set<String> ruleIds, Set<String> ruleTopics) {
+            this.rules = new ArrayList<>(rules);
+            for (int i = 0; i < this.rules.size(); i++) {
+                positions.put(this.rules.get(i), i);
+            }
+            this.ruleIds =
+                    ruleIds.stream().map(RuleFilterParser::normalize).collect(Collectors.toSet());
+            this.ruleTopics =
+                    ruleTopics.stream()
+                            .map(RuleFilterParser::normalize)
+                            .collect(Collectors.toSet());
+        }
+    }
+
+    private static class CompiledFilter implements Predicate<IRule> {
+        private final RuleIndex index;
+        private final BitSet selected = new BitSet();
+        private final Set<String> includedIds = new HashSet<>();
+        private final Set<String> includedTopics = new HashSet<>();
+        private final Set<String> excludedIds = new HashSet<>();
+        private final Set<String> excludedTopics = new HashSet<>();
+        private boolean includeAll;
+        private boolean excludeAll;
+
+        CompiledFilter(RuleIndex index) {
+            this.index = index;
+        }
+
+        @Override
+        public boolean test(IRule rule) {
+            Integer position = index.positions.get(rule);
+            if (position != null) {
+                return selected.get(position);
+            }
+            // not an indexed rule, such as a custom rule from outside the registry
+            return matches(rule);
+        }
+
+        boolean matches(IRule rule) {
+            if (excludeAll) {
+                return false;
             }
+            String id = normalize(rule.getId());
+            String topic = normalize(rule.getTopic());
+            boolean included =
+                    includeAll || includedIds.contains(id) || includedTopics.contains(topic);
+            return included && !excludedIds.contains(id) && !excludedTopics.contains(topic);
         }
-        return combinedPredicate;
     }
 
     static class FilterComparator implements Comparator<String>, Serializable {
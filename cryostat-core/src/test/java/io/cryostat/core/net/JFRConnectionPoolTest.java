@@ -0,0 +1,202 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.net;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.remote.JMXServiceURL;
+
+import org.openjdk.jmc.rjmx.common.ConnectionException;
+
+import io.cryostat.libcryostat.net.Credentials;
+import io.cryostat.libcryostat.sys.Clock;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class JFRConnectionPoolTest {
+
+    static final Duration IDLE_TIMEOUT = Duration.ofMinutes(1);
+
+    JFRConnectionPool pool;
+    JMXServiceURL url;
+    @Mock JFRConnectionToolkit toolkit;
+    @Mock Clock clock;
+
+    @BeforeEach
+    void setup() throws Exception {
+        url = new JMXServiceURL("service:jmx:rmi:///jndi/rmi://cryostat:9091/jmxrmi");
+        Mockito.when(toolkit.connect(Mockito.any(), Mockito.any()))
+                .thenAnswer(
+                        inv -> {
+                            JFRConnection connection = Mockito.mock(JFRConnection.class);
+                            Mockito.when(connection.isConnected()).thenReturn(true);
+                            return connection;
+                        });
+        Mockito.when(clock.getMonotonicTime()).thenReturn(0L);
+        pool = new JFRConnectionPool(toolkit, clock, IDLE_TIMEOUT, 2, Duration.ZERO);
+    }
+
+    @Test
+    void shouldReuseReturnedConnection() throws Exception {
+        JFRConnection first;
+        try (JFRConnectionPool.Lease lease = pool.lease(url)) {
+            first = lease.getConnection();
+            Mockito.verify(first).connect();
+        }
+        MatcherAssert.assertThat(pool.getIdleConnections(), Matchers.equalTo(1));
+
+        try (JFRConnectionPool.Lease lease = pool.lease(url)) {
+            MatcherAssert.assertThat(lease.getConnection(), Matchers.sameInstance(first));
+            MatcherAssert.assertThat(pool.getLeasedConnections(), Matchers.equalTo(1));
+        }
+        Mockito.verify(toolkit, Mockito.times(1)).connect(url, null);
+        Mockito.verify(first, Mockito.never()).disconnect();
+    }
+
+    @Test
+    void shouldNotShareConnectionsBetweenCredentials() throws Exception {
+        try (JFRConnectionPool.Lease lease = pool.lease(url, new Credentials("foo", "bar"))) {}
+
+        try (JFRConnectionPool.Lease lease = pool.lease(url, new Credentials("foo", "baz"))) {}
+        try (JFRConnectionPool.Lease lease = pool.lease(url, new Credentials("foo", "bar"))) {}
+
+        Mockito.verify(toolkit, Mockito.times(2)).connect(Mockito.eq(url), Mockito.any());
+        MatcherAssert.assertThat(pool.getIdleConnections(), Matchers.equalTo(2));
+    }
+
+    @Test
+    void shouldReplaceDisconnectedIdleConnection() throws Exception {
+        JFRConnection first;
+        try (JFRConnectionPool.Lease lease = pool.lease(url)) {
+            first = lease.getConnection();
+        }
+        Mockito.when(first.isConnected()).thenReturn(false);
+
+        try (JFRConnectionPool.Lease lease = pool.lease(url)) {
+            MatcherAssert.assertThat(lease.getConnection(), Matchers.not(first));
+        }
+        Mockito.verify(first).disconnect();
+        MatcherAssert.assertThat(pool.getIdleConnections(), Matchers.equalTo(1));
+    }
+
+    @Test
+    void shouldCloseConnectionsIdleForLongerThanTimeout() throws Exception {
+        JFRConnection first;
+        try (JFRConnectionPool.Lease lease = pool.lease(url)) {
+            first = lease.getConnection();
+        }
+        Mockito.when(clock.getMonotonicTime()).thenReturn(IDLE_TIMEOUT.toNanos() - 1);
+        pool.evictIdle();
+        Mockito.verify(first, Mockito.never()).disconnect();
+
+        Mockito.when(clock.getMonotonicTime()).thenReturn(IDLE_TIMEOUT.toNanos());
+        pool.evictIdle();
+
+        Mockito.verify(first).disconnect();
+        MatcherAssert.assertThat(pool.getIdleConnections(), Matchers.equalTo(0));
+    }
+
+    @Test
+    void shouldNotReturnInvalidatedConnection() throws Exception {
+        JFRConnection first;
+        try (JFRConnectionPool.Lease lease = pool.lease(url)) {
+            first = lease.getConnection();
+            lease.invalidate();
+        }
+
+        Mockito.verify(first).disconnect();
+        MatcherAssert.assertThat(pool.getIdleConnections(), Matchers.equalTo(0));
+        MatcherAssert.assertThat(pool.getLeasedConnections(), Matchers.equalTo(0));
+    }
+
+    @Test
+    void shouldReleaseSlotWhenConnectFails() throws Exception {
+        Mockito.doThrow(new ConnectionException("refused"))
+                .when(toolkit)
+                .connect(Mockito.any(), Mockito.any());
+
+        Assertions.assertThrows(ConnectionException.class, () -> pool.lease(url));
+
+        MatcherAssert.assertThat(pool.getLeasedConnections(), Matchers.equalTo(0));
+    }
+
+    @Test
+    void shouldLimitConnectionsPerTarget() throws Exception {
+        pool = new JFRConnectionPool(toolkit, new Clock(), IDLE_TIMEOUT, 1, Duration.ZERO);
+        JFRConnectionPool.Lease first = pool.lease(url);
+
+        Assertions.assertThrows(ConnectionException.class, () -> pool.lease(url));
+
+        first.close();
+        try (JFRConnectionPool.Lease lease = pool.lease(url)) {
+            MatcherAssert.assertThat(
+                    lease.getConnection(), Matchers.sameInstance(first.getConnection()));
+        }
+    }
+
+    @Test
+    void shouldWaitForLeasedConnectionToBeReturned() throws Exception {
+        pool = new JFRConnectionPool(toolkit, new Clock(), IDLE_TIMEOUT, 1, Duration.ofSeconds(30));
+        JFRConnectionPool.Lease first = pool.lease(url);
+
+        CompletableFuture<JFRConnection> waiting =
+                CompletableFuture.supplyAsync(
+                        () -> {
+                            try (JFRConnectionPool.Lease lease = pool.lease(url)) {
+                                return lease.getConnection();
+                            } catch (Exception e) {
+                                throw new RuntimeException(e);
+                            }
+                        });
+        Thread.sleep(100);
+        MatcherAssert.assertThat(waiting.isDone(), Matchers.is(false));
+        first.close();
+
+        MatcherAssert.assertThat(
+                waiting.get(5, TimeUnit.SECONDS), Matchers.sameInstance(first.getConnection()));
+    }
+
+    @Test
+    void shouldDisconnectIdleAndReturnedConnectionsOnClose() throws Exception {
+        JFRConnectionPool.Lease leased = pool.lease(url);
+        JFRConnection idle;
+        try (JFRConnectionPool.Lease lease = pool.lease(url)) {
+            idle = lease.getConnection();
+        }
+
+        pool.close();
+        Mockito.verify(idle).disconnect();
+        Mockito.verify(leased.getConnection(), Mockito.never()).disconnect();
+
+        leased.close();
+        Mockito.verify(leased.getConnection()).disconnect();
+        Assertions.assertThrows(IllegalStateException.class, () -> pool.lease(url));
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.net;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.AttributeList;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+
+import org.openjdk.jmc.flightrecorder.configuration.IFlightRecorderService;
+import org.openjdk.jmc.rjmx.common.ConnectionToolkit;
+import org.openjdk.jmc.rjmx.common.IConnectionDescriptor;
+import org.openjdk.jmc.rjmx.common.IConnectionHandle;
+import org.openjdk.jmc.rjmx.common.internal.RJMXConnection;
+import org.openjdk.jmc.rjmx.common.services.jfr.internal.FlightRecorderServiceFactory;
+import org.openjdk.jmc.rjmx.common.subscription.MRI;
+
+import io.cryostat.libcryostat.net.MBeanMetrics;
+import io.cryostat.libcryostat.net.MBeanMetricsProjection;
+import io.cryostat.libcryostat.sys.Environment;
+import io.cryostat.libcryostat.sys.FileSystem;
+import io.cryostat.libcryostat.tui.ClientWriter;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.AdditionalAnswers;
+import org.mockito.Mock;
+import org.mockito.MockedConstruction;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class JFRJMXConnectionTest {
+
+    static final MBeanServer PLATFORM = ManagementFactory.getPlatformMBeanServer();
+
+    JFRJMXConnection connection;
+    MBeanServerConnection server;
+    @Mock RJMXConnection rjmx;
+    @Mock ClientWriter cw;
+    @Mock FileSystem fs;
+    @Mock Environment env;
+    @Mock IConnectionDescriptor cd;
+
+    @BeforeEach
+    void setup() throws Exception {
+        server = Mockito.mock(MBeanServerConnection.class, AdditionalAnswers.delegatesTo(PLATFORM));
+        Mockito.when(rjmx.isConnected()).thenReturn(true);
+        Mockito.when(rjmx.getMBeanServer()).thenReturn(server);
+        Mockito.when(rjmx.getMBeanInfo(Mockito.any()))
+                .thenAnswer(inv -> PLATFORM.getMBeanInfo(inv.getArgument(0)));
+        Mockito.when(rjmx.getAttributeValue(Mockito.any()))
+                .thenAnswer(
+                        inv -> {
+                            MRI mri = inv.getArgument(0);
+                            return PLATFORM.getAttribute(mri.getObjectName(), mri.getDataPath());
+                        });
+        connection = new JFRJMXConnection(cw, fs, env, cd);
+        connection.rjmxConnection = rjmx;
+    }
+
+    @Test
+    void shouldReadEachBeanInSingleRequest() throws Exception {
+        MBeanMetrics metrics = connection.getMBeanMetrics();
+
+        Mockito.verify(server, Mockito.times(4))
+                .getAttributes(Mockito.any(ObjectName.class), Mockito.any(String[].class));
+        // only attributes which the bean fails to provide, such as an unsupported BootClassPath,
+        // are retried individually
+        Mockito.verify(rjmx, Mockito.never())
+                .getAttributeValue(Mockito.argThat(mri -> "Name".equals(mri.getDataPath())));
+        assertLocalMetrics(metrics);
+    }
+
+    @Test
+    void shouldReadMissingAttributesIndividually() throws Exception {
+        Mockito.doReturn(new AttributeList())
+                .when(server)
+                .getAttributes(
+                        Mockito.eq(ConnectionToolkit.RUNTIME_BEAN_NAME),
+                        Mockito.any(String[].class));
+
+        MBeanMetrics metrics = connection.getMBeanMetrics();
+
+        Mockito.verify(rjmx)
+                .getAttributeValue(Mockito.argThat(mri -> "Name".equals(mri.getDataPath())));
+        assertLocalMetrics(metrics);
+    }
+
+    @Test
+    void shouldReadAttributesIndividuallyWhenRequestFails() throws Exception {
+        Mockito.doThrow(new IOException("unsupported"))
+                .when(server)
+                .getAttributes(Mockito.any(ObjectName.class), Mockito.any(String[].class));
+
+        MBeanMetrics metrics = connection.getMBeanMetrics();
+
+        assertLocalMetrics(metrics);
+        MatcherAssert.assertThat(metrics.getMemory().getHeapMemoryUsage(), Matchers.notNullValue());
+        MatcherAssert.assertThat(metrics.getThread().getThreadCount(), Matchers.greaterThan(0));
+    }
+
+    @Test
+    void shouldReuseMBeanInfoUntilDisconnected() throws Exception {
+        connection.getMBeanMetrics();
+        connection.getMBeanMetrics();
+        connection.getJvmIdentifier();
+
+        Mockito.verify(rjmx, Mockito.times(1)).getMBeanInfo(ConnectionToolkit.RUNTIME_BEAN_NAME);
+        Mockito.verify(rjmx, Mockito.times(1)).getMBeanInfo(ConnectionToolkit.MEMORY_BEAN_NAME);
+
+        connection.disconnect();
+        connection.rjmxConnection = rjmx;
+        connection.getMBeanMetrics();
+
+        Mockito.verify(rjmx, Mockito.times(2)).getMBeanInfo(ConnectionToolkit.RUNTIME_BEAN_NAME);
+        Mockito.verify(rjmx, Mockito.times(2)).getMBeanInfo(ConnectionToolkit.MEMORY_BEAN_NAME);
+    }
+
+    @Test
+    void shouldReadOnlyProjectedAttributes() throws Exception {
+        MBeanMetricsProjection projection =
+                MBeanMetricsProjection.Builder.create()
+                        .attributes(MBeanMetricsProjection.Bean.RUNTIME, "Uptime")
+                        .attributes(MBeanMetricsProjection.Bean.THREAD, "ThreadCount")
+                        .build();
+
+        MBeanMetrics metrics = connection.getMBeanMetrics(projection);
+
+        Mockito.verify(server)
+                .getAttributes(ConnectionToolkit.RUNTIME_BEAN_NAME, new String[] {"Uptime"});
+        Mockito.verify(server)
+                .getAttributes(ConnectionToolkit.THREAD_BEAN_NAME, new String[] {"ThreadCount"});
+        Mockito.verify(server, Mockito.times(2))
+                .getAttributes(Mockito.any(ObjectName.class), Mockito.any(String[].class));
+        Mockito.verify(rjmx, Mockito.never()).getMBeanInfo(ConnectionToolkit.MEMORY_BEAN_NAME);
+        MatcherAssert.assertThat(metrics.getRuntime().getUptime(), Matchers.greaterThan(0L));
+        MatcherAssert.assertThat(metrics.getRuntime().getName(), Matchers.emptyString());
+        MatcherAssert.assertThat(metrics.getThread().getThreadCount(), Matchers.greaterThan(0));
+        MatcherAssert.assertThat(metrics.getJvmId(), Matchers.nullValue());
+    }
+
+    @Test
+    void shouldReadIdentifyingAttributesForProjectedJvmId() throws Exception {
+        String expected = connection.getMBeanMetrics().getJvmId();
+        Mockito.clearInvocations(server, rjmx);
+
+        MBeanMetrics metrics =
+                connection.getMBeanMetrics(MBeanMetricsProjection.Builder.create().jvmId().build());
+
+        MatcherAssert.assertThat(metrics.getJvmId(), Matchers.equalTo(expected));
+        MatcherAssert.assertThat(
+                metrics.getRuntime().getUptime(), Matchers.equalTo(Long.MIN_VALUE));
+        for (ObjectName beanName :
+                List.of(
+                        ConnectionToolkit.MEMORY_BEAN_NAME,
+                        ConnectionToolkit.THREAD_BEAN_NAME,
+                        ConnectionToolkit.OPERATING_SYSTEM_BEAN_NAME)) {
+            Mockito.verify(rjmx, Mockito.never()).getMBeanInfo(beanName);
+            Mockito.verify(rjmx, Mockito.never())
+                    .getAttributeValue(
+                            Mockito.argThat(mri -> beanName.equals(mri.getObjectName())));
+            Mockito.verify(server, Mockito.never())
+                    .getAttributes(Mockito.eq(beanName), Mockito.any(String[].class));
+        }
+    }
+
+    @Test
+    void shouldNotRequestAttributesWhenNoneAreProjected() throws Exception {
+        MBeanMetricsProjection projection =
+                MBeanMetricsProjection.Builder.create()
+                        .attributes(MBeanMetricsProjection.Bean.THREAD, "NoSuchAttribute")
+                        .build();
+
+        connection.getMBeanMetrics(projection);
+
+        Mockito.verify(rjmx).getMBeanInfo(ConnectionToolkit.THREAD_BEAN_NAME);
+        Mockito.verify(server, Mockito.never())
+                .getAttributes(Mockito.any(ObjectName.class), Mockito.any(String[].class));
+    }
+
+    @Test
+    void shouldReuseFlightRecorderServiceUntilDisconnected() throws Exception {
+        IConnectionHandle handle = Mockito.mock(IConnectionHandle.class);
+        IFlightRecorderService service = Mockito.mock(IFlightRecorderService.class);
+        try (MockedConstruction<FlightRecorderServiceFactory> factories =
+                Mockito.mockConstruction(
+                        FlightRecorderServiceFactory.class,
+                        (factory, context) ->
+                                Mockito.when(factory.getServiceInstance(handle))
+                                        .thenReturn(service))) {
+            connection = new JFRJMXConnection(cw, fs, env, cd);
+            connection.rjmxConnection = rjmx;
+            connection.handle = handle;
+            FlightRecorderServiceFactory factory = factories.constructed().get(0);
+
+            connection.getService().getAvailableRecordings();
+            connection.getService().getAvailableRecordings();
+            connection.getService().stop(null);
+
+            Mockito.verify(factory, Mockito.times(1)).getServiceInstance(handle);
+            Mockito.verify(service, Mockito.times(2)).getAvailableRecordings();
+
+            connection.disconnect();
+            connection.rjmxConnection = rjmx;
+            connection.handle = handle;
+            connection.getService().getAvailableRecordings();
+
+            Mockito.verify(factory, Mockito.times(2)).getServiceInstance(handle);
+        }
+    }
+
+    private void assertLocalMetrics(MBeanMetrics metrics) {
+        MatcherAssert.assertThat(
+                metrics.getRuntime().getName(),
+                Matchers.equalTo(ManagementFactory.getRuntimeMXBean().getName()));
+        MatcherAssert.assertThat(
+                List.of(metrics.getRuntime().getInputArguments()),
+                Matchers.equalTo(ManagementFactory.getRuntimeMXBean().getInputArguments()));
+        MatcherAssert.assertThat(
+                metrics.getOs().getAvailableProcessors(),
+                Matchers.equalTo(Runtime.getRuntime().availableProcessors()));
+    }
+}
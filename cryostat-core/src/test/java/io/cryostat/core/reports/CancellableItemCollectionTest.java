@@ -0,0 +1,93 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.reports;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.concurrent.CancellationException;
+
+import org.openjdk.jmc.common.item.Aggregators;
+import org.openjdk.jmc.common.item.IItem;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.common.item.ItemFilters;
+import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class CancellableItemCollectionTest {
+
+    IItemCollection original;
+    IItemCollection wrapped;
+
+    @BeforeEach
+    void setup() throws Exception {
+        File file = Paths.get(getClass().getResource("/profiling_sample.jfr").toURI()).toFile();
+        original = JfrLoaderToolkit.loadEvents(file);
+        wrapped = CancellableItemCollection.wrap(original);
+    }
+
+    @AfterEach
+    void clearInterrupt() {
+        Thread.interrupted();
+    }
+
+    @Test
+    void shouldBehaveAsWrappedCollection() {
+        MatcherAssert.assertThat(
+                wrapped.getAggregate(Aggregators.count()),
+                Matchers.equalTo(original.getAggregate(Aggregators.count())));
+        MatcherAssert.assertThat(
+                wrapped.apply(ItemFilters.type("jdk.ExecutionSample"))
+                        .getAggregate(Aggregators.count()),
+                Matchers.equalTo(
+                        original.apply(ItemFilters.type("jdk.ExecutionSample"))
+                                .getAggregate(Aggregators.count())));
+        MatcherAssert.assertThat(
+                CancellableItemCollection.wrap(wrapped), Matchers.sameInstance(wrapped));
+    }
+
+    @Test
+    void shouldStopAggregatingWhenInterrupted() {
+        Thread.currentThread().interrupt();
+
+        Assertions.assertThrows(
+                CancellationException.class, () -> wrapped.getAggregate(Aggregators.count()));
+    }
+
+    @Test
+    void shouldStopIteratingWhenInterrupted() {
+        IItemIterable iterable =
+                wrapped.stream()
+                        .filter(i -> i.getItemCount() > CancellableItemCollection.CHECK_INTERVAL)
+                        .findFirst()
+                        .orElseThrow();
+        Thread.currentThread().interrupt();
+
+        Assertions.assertThrows(
+                CancellationException.class,
+                () -> {
+                    for (IItem item : iterable) {
+                        MatcherAssert.assertThat(item, Matchers.notNullValue());
+                    }
+                });
+    }
+}
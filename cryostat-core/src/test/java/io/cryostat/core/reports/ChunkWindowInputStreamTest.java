@@ -0,0 +1,114 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.reports;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ChunkWindowInputStreamTest {
+
+    // profiling_sample.jfr has two chunks
+    static final long FIRST_CHUNK_START_NANOS = 1640095541688652553L;
+    static final long SECOND_CHUNK_START_NANOS = 1640095610747956511L;
+    static final int SECOND_CHUNK_OFFSET = 1565188;
+
+    byte[] recording;
+
+    @BeforeEach
+    void setup() throws Exception {
+        recording =
+                Files.readAllBytes(
+                        Paths.get(getClass().getResource("/profiling_sample.jfr").toURI()));
+    }
+
+    @Test
+    void shouldPassThroughChunksOverlappingWindow() throws Exception {
+        try (ChunkWindowInputStream is = windowed(0, Long.MAX_VALUE)) {
+            MatcherAssert.assertThat(readAll(is), Matchers.equalTo(recording));
+        }
+    }
+
+    @Test
+    void shouldSkipChunksEndingBeforeWindow() throws Exception {
+        try (ChunkWindowInputStream is =
+                windowed(SECOND_CHUNK_START_NANOS + 1, SECOND_CHUNK_START_NANOS + 2)) {
+            MatcherAssert.assertThat(
+                    readAll(is),
+                    Matchers.equalTo(
+                            Arrays.copyOfRange(recording, SECOND_CHUNK_OFFSET, recording.length)));
+        }
+    }
+
+    @Test
+    void shouldSkipChunksStartingAfterWindow() throws Exception {
+        try (ChunkWindowInputStream is =
+                windowed(FIRST_CHUNK_START_NANOS, FIRST_CHUNK_START_NANOS + 1)) {
+            MatcherAssert.assertThat(
+                    readAll(is),
+                    Matchers.equalTo(Arrays.copyOfRange(recording, 0, SECOND_CHUNK_OFFSET)));
+        }
+    }
+
+    @Test
+    void shouldHaveNoSelectedChunksForWindowOutsideRecording() throws Exception {
+        try (ChunkWindowInputStream is = windowed(0, 1)) {
+            MatcherAssert.assertThat(is.hasSelectedChunk(), Matchers.is(false));
+            MatcherAssert.assertThat(is.read(), Matchers.equalTo(-1));
+        }
+    }
+
+    @Test
+    void shouldRejectNonRecording() throws Exception {
+        try (ChunkWindowInputStream is =
+                new ChunkWindowInputStream(
+                        new ByteArrayInputStream(new byte[100]), 0, Long.MAX_VALUE)) {
+            Assertions.assertThrows(IOException.class, is::read);
+        }
+    }
+
+    @Test
+    void shouldRejectInvertedWindow() {
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> new ChunkWindowInputStream(new ByteArrayInputStream(recording), 2, 1));
+    }
+
+    private ChunkWindowInputStream windowed(long startNanos, long endNanos) {
+        return new ChunkWindowInputStream(
+                new ByteArrayInputStream(recording), startNanos, endNanos);
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1000];
+        int n;
+        while ((n = is.read(buf)) >= 0) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
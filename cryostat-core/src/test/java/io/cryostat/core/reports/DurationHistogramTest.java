@@ -0,0 +1,130 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.reports;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.stream.LongStream;
+
+import org.openjdk.jmc.common.item.Aggregators;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.common.unit.UnitLookup;
+import org.openjdk.jmc.flightrecorder.JfrAttributes;
+import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class DurationHistogramTest {
+
+    @Test
+    void shouldReportNothingWhenEmpty() {
+        DurationHistogram histogram = new DurationHistogram();
+
+        MatcherAssert.assertThat(histogram.getCount(), Matchers.equalTo(0L));
+        MatcherAssert.assertThat(histogram.getMax(), Matchers.nullValue());
+        MatcherAssert.assertThat(histogram.getAverage(), Matchers.nullValue());
+        MatcherAssert.assertThat(histogram.getPercentile(50), Matchers.nullValue());
+    }
+
+    @Test
+    void shouldTrackExactSmallValues() {
+        DurationHistogram histogram = new DurationHistogram();
+        LongStream.rangeClosed(1, 100).forEach(histogram::record);
+
+        MatcherAssert.assertThat(histogram.getCount(), Matchers.equalTo(100L));
+        MatcherAssert.assertThat(nanos(histogram.getMin()), Matchers.equalTo(1L));
+        MatcherAssert.assertThat(nanos(histogram.getMax()), Matchers.equalTo(100L));
+        MatcherAssert.assertThat(
+                histogram.getAverage().doubleValueIn(UnitLookup.NANOSECOND),
+                Matchers.closeTo(50.5, 0.001));
+        MatcherAssert.assertThat(nanos(histogram.getPercentile(50)), Matchers.equalTo(50L));
+        MatcherAssert.assertThat(nanos(histogram.getPercentile(99)), Matchers.equalTo(99L));
+        MatcherAssert.assertThat(nanos(histogram.getPercentile(100)), Matchers.equalTo(100L));
+    }
+
+    @Test
+    void shouldApproximatePercentilesWithinOnePercent() {
+        DurationHistogram histogram = new DurationHistogram();
+        LongStream.rangeClosed(1, 1_000_000).map(i -> i * 1_000).forEach(histogram::record);
+
+        assertWithinOnePercent(histogram.getPercentile(50), 500_000_000L);
+        assertWithinOnePercent(histogram.getPercentile(95), 950_000_000L);
+        assertWithinOnePercent(histogram.getPercentile(99), 990_000_000L);
+        MatcherAssert.assertThat(nanos(histogram.getMax()), Matchers.equalTo(1_000_000_000L));
+    }
+
+    @Test
+    void shouldMergeToSameResultAsSingleHistogram() {
+        DurationHistogram combined = new DurationHistogram();
+        DurationHistogram low = new DurationHistogram();
+        DurationHistogram high = new DurationHistogram();
+        for (long i = 1; i <= 10_000; i++) {
+            long value = i * i;
+            combined.record(value);
+            (i % 2 == 0 ? low : high).record(value);
+        }
+
+        DurationHistogram merged = low.merge(high);
+
+        MatcherAssert.assertThat(merged.getCount(), Matchers.equalTo(combined.getCount()));
+        MatcherAssert.assertThat(merged.getMax(), Matchers.equalTo(combined.getMax()));
+        MatcherAssert.assertThat(merged.getAverage(), Matchers.equalTo(combined.getAverage()));
+        for (double p : new double[] {0, 50, 95, 99, 100}) {
+            MatcherAssert.assertThat(
+                    merged.getPercentile(p), Matchers.equalTo(combined.getPercentile(p)));
+        }
+    }
+
+    @Test
+    void shouldRejectOutOfRangePercentiles() {
+        DurationHistogram histogram = new DurationHistogram();
+        histogram.record(1);
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> histogram.getPercentile(-1));
+        Assertions.assertThrows(
+                IllegalArgumentException.class, () -> histogram.getPercentile(100.1));
+    }
+
+    @Test
+    void shouldAgreeWithJmcAggregatorsInOnePass() throws Exception {
+        File file = Paths.get(getClass().getResource("/profiling_sample.jfr").toURI()).toFile();
+        IItemCollection items = JfrLoaderToolkit.loadEvents(file);
+
+        DurationHistogram histogram =
+                items.getAggregate(DurationHistogram.aggregator(JfrAttributes.DURATION));
+        IQuantity max = items.getAggregate(Aggregators.max(JfrAttributes.DURATION));
+        IQuantity avg = items.getAggregate(Aggregators.avg(JfrAttributes.DURATION));
+
+        MatcherAssert.assertThat(histogram, Matchers.notNullValue());
+        MatcherAssert.assertThat(nanos(histogram.getMax()), Matchers.equalTo(nanos(max)));
+        MatcherAssert.assertThat(
+                histogram.getAverage().doubleValueIn(UnitLookup.NANOSECOND),
+                Matchers.closeTo(avg.doubleValueIn(UnitLookup.NANOSECOND), 1));
+    }
+
+    private static long nanos(IQuantity quantity) {
+        return quantity.clampedLongValueIn(UnitLookup.NANOSECOND);
+    }
+
+    private static void assertWithinOnePercent(IQuantity actual, long expected) {
+        MatcherAssert.assertThat(
+                (double) nanos(actual), Matchers.closeTo(expected, expected * 0.01));
+    }
+}
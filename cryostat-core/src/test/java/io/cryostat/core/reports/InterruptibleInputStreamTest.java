@@ -0,0 +1,47 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.reports;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class InterruptibleInputStreamTest {
+
+    @AfterEach
+    void clearInterrupt() {
+        Thread.interrupted();
+    }
+
+    @Test
+    void shouldReadUntilInterrupted() throws Exception {
+        InputStream is = new InterruptibleInputStream(new ByteArrayInputStream(new byte[] {1, 2}));
+
+        MatcherAssert.assertThat(is.read(), Matchers.equalTo(1));
+        Thread.currentThread().interrupt();
+
+        Assertions.assertThrows(InterruptedIOException.class, is::read);
+        Assertions.assertThrows(InterruptedIOException.class, () -> is.read(new byte[2], 0, 2));
+        Assertions.assertThrows(InterruptedIOException.class, () -> is.skip(1));
+        MatcherAssert.assertThat(Thread.currentThread().isInterrupted(), Matchers.is(true));
+    }
+}
@@ -17,30 +17,80 @@ package io.cryostat.core.reports;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.openjdk.jmc.common.item.IItem;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.common.item.IMemberAccessor;
+import org.openjdk.jmc.common.item.ItemFilters;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.common.unit.IRange;
+import org.openjdk.jmc.common.unit.QuantityRange;
+import org.openjdk.jmc.common.unit.UnitLookup;
+import org.openjdk.jmc.common.util.IPreferenceValueProvider;
+import org.openjdk.jmc.common.util.TypedPreference;
+import org.openjdk.jmc.flightrecorder.JfrAttributes;
+import org.openjdk.jmc.flightrecorder.rules.DependsOn;
+import org.openjdk.jmc.flightrecorder.rules.IResult;
+import org.openjdk.jmc.flightrecorder.rules.IResultValueProvider;
+import org.openjdk.jmc.flightrecorder.rules.IRule;
+import org.openjdk.jmc.flightrecorder.rules.ResultBuilder;
 import org.openjdk.jmc.flightrecorder.rules.RuleRegistry;
+import org.openjdk.jmc.flightrecorder.rules.Severity;
+import org.openjdk.jmc.flightrecorder.rules.TypedResult;
+import org.openjdk.jmc.flightrecorder.rules.jdk.memory.SystemGcRule;
+import org.openjdk.jmc.flightrecorder.rules.util.RulesToolkit.EventAvailability;
 
 import io.cryostat.core.reports.InterruptibleReportGenerator.AnalysisResult;
+import io.cryostat.core.util.RuleFilterParser;
 
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 @ExtendWith(MockitoExtension.class)
 class InterruptibleReportGeneratorTest {
 
     private static final int CUSTOM_RULES_SIZE = 1; // QuarkusRestRule
+    // profiling_sample.jfr has two chunks, the first ending exactly when the second starts
+    private static final long SECOND_CHUNK_START_NANOS = 1640095610747956511L;
+    private static final long SECOND_CHUNK_SIZE = 662934L;
 
     @Mock InputStream recording;
 
@@ -51,6 +101,11 @@ class InterruptibleReportGeneratorTest {
         generator = new InterruptibleReportGenerator(Executors.newWorkStealingPool(1));
     }
 
+    @AfterEach()
+    void teardown() {
+        generator.close();
+    }
+
     @Test
     void shouldProduceEvalMap() throws Exception {
         try (InputStream is = new FileInputStream(getJfrFile())) {
@@ -82,6 +137,38 @@ class InterruptibleReportGeneratorTest {
         }
     }
 
+    @Test
+    void shouldCloseBlockedRecordingStreamWhenCancelled() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        InputStream blocked =
+                new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        reading.countDown();
+                        try {
+                            closed.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        throw new IOException("Stream closed");
+                    }
+
+                    @Override
+                    public void close() {
+                        closed.countDown();
+                    }
+                };
+        Future<Map<String, AnalysisResult>> scoreMap =
+                generator.generateEvalMapInterruptibly(blocked, rule -> true);
+        MatcherAssert.assertThat(reading.await(10, TimeUnit.SECONDS), Matchers.is(true));
+
+        scoreMap.cancel(true);
+
+        MatcherAssert.assertThat(closed.await(1, TimeUnit.SECONDS), Matchers.is(true));
+        Assertions.assertThrows(CancellationException.class, scoreMap::get);
+    }
+
     @Test
     void shouldProduceEvalMapWithFilteredRules() throws Exception {
         // with rule filtered out, result should always be -1.0 (N/A)
@@ -112,7 +199,984 @@ class InterruptibleReportGeneratorTest {
         }
     }
 
+    @Test
+    void shouldProduceEvalMapsConcurrentlyWithSeparateParsingExecutor() throws Exception {
+        generator =
+                new InterruptibleReportGenerator(
+                        Executors.newWorkStealingPool(1),
+                        Executors.newFixedThreadPool(2, r -> new Thread(r, "parser")));
+        Set<String> readers = ConcurrentHashMap.newKeySet();
+        CountDownLatch firstMayParse = new CountDownLatch(1);
+        try (InputStream a = new RecordingThreadInputStream(getJfrFile(), readers, firstMayParse);
+                InputStream b =
+                        new RecordingThreadInputStream(
+                                getJfrFile(), readers, new CountDownLatch(0))) {
+            Future<Map<String, AnalysisResult>> first =
+                    generator.generateEvalMapInterruptibly(a, rule -> true);
+            Future<Map<String, AnalysisResult>> second =
+                    generator.generateEvalMapInterruptibly(b, rule -> true);
+
+            // the second report is parsed and evaluated while the first is still being parsed
+            Map<String, AnalysisResult> secondMap = second.get(30, TimeUnit.SECONDS);
+            MatcherAssert.assertThat(first.isDone(), Matchers.is(false));
+            firstMayParse.countDown();
+
+            MatcherAssert.assertThat(
+                    first.get().size(),
+                    Matchers.equalTo(RuleRegistry.getRules().size() + CUSTOM_RULES_SIZE));
+            MatcherAssert.assertThat(secondMap.keySet(), Matchers.equalTo(first.get().keySet()));
+        }
+        MatcherAssert.assertThat(readers, Matchers.equalTo(Set.of("parser")));
+    }
+
+    @Test
+    void shouldReuseCachedParseForSameRecordingKey() throws Exception {
+        ParsedRecordingCache cache = new ParsedRecordingCache();
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                        .parsedRecordingCache(cache)
+                        .build();
+        Map<String, AnalysisResult> first;
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            first = generator.generateEvalMapInterruptibly("sample", is, rule -> true).get();
+        }
+        MatcherAssert.assertThat(cache.contains("sample"), Matchers.is(true));
+
+        Map<String, AnalysisResult> second =
+                generator
+                        .generateEvalMapInterruptibly(
+                                "sample", recording, rule -> !"PID1Rule".equals(rule.getId()))
+                        .get();
+
+        Mockito.verify(recording).close();
+        Mockito.verifyNoMoreInteractions(recording);
+        MatcherAssert.assertThat(second.keySet(), Matchers.equalTo(first.keySet()));
+        MatcherAssert.assertThat(second.get("PID1Rule").getScore(), Matchers.equalTo(-1.0));
+    }
+
+    @Test
+    void shouldNotCacheParseRejectedByExecutor() throws Exception {
+        ParsedRecordingCache cache = new ParsedRecordingCache();
+        ExecutorService rejecting = Executors.newSingleThreadExecutor();
+        rejecting.shutdown();
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                        .parsingExecutor(rejecting)
+                        .parsedRecordingCache(cache)
+                        .build();
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            Future<Map<String, AnalysisResult>> scoreMap =
+                    generator.generateEvalMapInterruptibly("key", is, rule -> true);
+            ExecutionException ee =
+                    Assertions.assertThrows(
+                            ExecutionException.class, () -> scoreMap.get(30, TimeUnit.SECONDS));
+            MatcherAssert.assertThat(
+                    ee.getCause(), Matchers.instanceOf(RejectedExecutionException.class));
+        }
+        MatcherAssert.assertThat(cache.size(), Matchers.equalTo(0));
+
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                        .parsedRecordingCache(cache)
+                        .build();
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            Map<String, AnalysisResult> scoreMap =
+                    generator
+                            .generateEvalMapInterruptibly("key", is, rule -> true)
+                            .get(30, TimeUnit.SECONDS);
+            MatcherAssert.assertThat(scoreMap, Matchers.not(Matchers.anEmptyMap()));
+        }
+        MatcherAssert.assertThat(cache.contains("key"), Matchers.is(true));
+    }
+
+    @Test
+    void shouldNotifyListenerOfEachRuleResult() throws Exception {
+        Map<String, AnalysisResult> streamed = new ConcurrentHashMap<>();
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            Map<String, AnalysisResult> evalMap =
+                    generator
+                            .generateEvalMapInterruptibly(null, is, rule -> true, streamed::put)
+                            .get();
+
+            MatcherAssert.assertThat(streamed, Matchers.equalTo(evalMap));
+        }
+    }
+
+    @Test
+    void shouldReportTimedOutRulesAsNotApplicable() throws Exception {
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                        .ruleTimeout(Duration.ofNanos(1))
+                        .build();
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            Map<String, AnalysisResult> evalMap =
+                    generator.generateEvalMapInterruptibly(is, rule -> true).get();
+
+            MatcherAssert.assertThat(
+                    evalMap.size(),
+                    Matchers.equalTo(RuleRegistry.getRules().size() + CUSTOM_RULES_SIZE));
+            MatcherAssert.assertThat(
+                    evalMap.values(),
+                    Matchers.hasItem(
+                            Matchers.both(
+                                            Matchers.<AnalysisResult>hasProperty(
+                                                    "score", Matchers.equalTo(-1.0)))
+                                    .and(
+                                            Matchers.hasProperty(
+                                                    "evaluation",
+                                                    Matchers.hasProperty(
+                                                            "summary",
+                                                            Matchers.startsWith(
+                                                                    "The rule evaluation was"
+                                                                            + " cancelled"))))));
+        }
+    }
+
+    @Test
+    void shouldFailReportWhenParsingExceedsReportTimeout() throws Exception {
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                        .reportTimeout(Duration.ofNanos(1))
+                        .build();
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            Future<Map<String, AnalysisResult>> scoreMap =
+                    generator.generateEvalMapInterruptibly(is, rule -> true);
+
+            ExecutionException ee =
+                    Assertions.assertThrows(ExecutionException.class, scoreMap::get);
+            MatcherAssert.assertThat(ee.getCause(), Matchers.instanceOf(TimeoutException.class));
+        }
+    }
+
+    @Test
+    void shouldShareTimeoutThreadBetweenGenerators() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            try (InterruptibleReportGenerator g =
+                            InterruptibleReportGenerator.Builder.create(
+                                            Executors.newWorkStealingPool(1))
+                                    .reportTimeout(Duration.ofNanos(1))
+                                    .build();
+                    InputStream is = new FileInputStream(getJfrFile())) {
+                Future<Map<String, AnalysisResult>> scoreMap =
+                        g.generateEvalMapInterruptibly(is, rule -> true);
+                Assertions.assertThrows(ExecutionException.class, scoreMap::get);
+            }
+        }
+        long timeoutThreads =
+                Thread.getAllStackTraces().keySet().stream()
+                        .filter(t -> "report-timeouts".equals(t.getName()))
+                        .count();
+        MatcherAssert.assertThat(timeoutThreads, Matchers.equalTo(1L));
+    }
+
+    @Test
+    void shouldNotDelayOtherTimeoutsWhileTimedOutStageCallbacksBlock() throws Exception {
+        CountDownLatch listenerBlocked = new CountDownLatch(1);
+        CountDownLatch listenerMayReturn = new CountDownLatch(1);
+        try (InterruptibleReportGenerator blocking =
+                        InterruptibleReportGenerator.Builder.create(
+                                        Executors.newWorkStealingPool(1))
+                                .ruleTimeout(Duration.ofNanos(1))
+                                .build();
+                InputStream a = new FileInputStream(getJfrFile());
+                InputStream b =
+                        new RecordingThreadInputStream(
+                                getJfrFile(),
+                                ConcurrentHashMap.newKeySet(),
+                                new CountDownLatch(1))) {
+            Future<Map<String, AnalysisResult>> blocked =
+                    blocking.generateEvalMapInterruptibly(
+                            null,
+                            a,
+                            rule -> true,
+                            (id, result) -> {
+                                listenerBlocked.countDown();
+                                try {
+                                    listenerMayReturn.await(30, TimeUnit.SECONDS);
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                            });
+            MatcherAssert.assertThat(
+                    listenerBlocked.await(30, TimeUnit.SECONDS), Matchers.is(true));
+
+            generator =
+                    InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                            .reportTimeout(Duration.ofMillis(100))
+                            .build();
+            Future<Map<String, AnalysisResult>> scoreMap =
+                    generator.generateEvalMapInterruptibly(b, rule -> true);
+            try {
+                // the report's recording never becomes readable, so it can only time out
+                ExecutionException ee =
+                        Assertions.assertThrows(
+                                ExecutionException.class, () -> scoreMap.get(10, TimeUnit.SECONDS));
+                MatcherAssert.assertThat(
+                        ee.getCause(), Matchers.instanceOf(TimeoutException.class));
+            } finally {
+                listenerMayReturn.countDown();
+            }
+            blocked.get(30, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void shouldNotShutDownGivenExecutorsOnClose() throws Exception {
+        ExecutorService executor = Executors.newWorkStealingPool(1);
+        ExecutorService parsingExecutor = Executors.newSingleThreadExecutor();
+        try {
+            new InterruptibleReportGenerator(executor, parsingExecutor).close();
+            MatcherAssert.assertThat(executor.isShutdown(), Matchers.is(false));
+            MatcherAssert.assertThat(parsingExecutor.isShutdown(), Matchers.is(false));
+        } finally {
+            parsingExecutor.shutdown();
+        }
+    }
+
+    @Test
+    void shouldProduceSameFilteredEvalMapWithEventTypePruning() throws Exception {
+        Set<String> topics =
+                Set.of("garbage_collection", "jvm_information", "java_application", "quarkus");
+        Map<String, AnalysisResult> expected;
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            expected =
+                    generator
+                            .generateEvalMapInterruptibly(
+                                    is, rule -> topics.contains(rule.getTopic()))
+                            .get();
+        }
+
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                        .pruneEventTypes(true)
+                        .build();
+        Map<String, AnalysisResult> actual;
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            actual =
+                    generator
+                            .generateEvalMapInterruptibly(
+                                    is, rule -> topics.contains(rule.getTopic()))
+                            .get();
+        }
+
+        assertSameEvalMap(expected, actual);
+    }
+
+    @Test
+    void shouldProduceSameEvalMapWithOffHeapEventStorage() throws Exception {
+        Map<String, AnalysisResult> expected;
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            expected = generator.generateEvalMapInterruptibly(is, rule -> true).get();
+        }
+
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                        .offHeapEventStorage(true)
+                        .build();
+        Map<String, AnalysisResult> actual;
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            actual = generator.generateEvalMapInterruptibly(is, rule -> true).get();
+        }
+
+        assertSameEvalMap(expected, actual);
+    }
+
+    @Test
+    void shouldChargeAndReturnOffHeapStorageWhenReportCompletes() throws Exception {
+        ReportAdmissionController controller = new ReportAdmissionController(1, Long.MAX_VALUE, 0);
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                        .offHeapEventStorage(true)
+                        .admissionController(controller)
+                        .build();
+        OffHeapItemCollection.Arena arena = generator.getOffHeapArena();
+        long recordingSize = getJfrFile().length();
+        AtomicLong inFlight = new AtomicLong();
+        AtomicLong offHeap = new AtomicLong();
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            generator
+                    .generateEvalMapInterruptibly(
+                            null,
+                            is,
+                            recordingSize,
+                            rule -> true,
+                            null,
+                            (id, result) -> {
+                                inFlight.compareAndSet(0, controller.getBytesInFlight());
+                                offHeap.compareAndSet(0, arena.getUsedBytes());
+                            })
+                    .get(30, TimeUnit.SECONDS);
+        }
+
+        MatcherAssert.assertThat(offHeap.get(), Matchers.greaterThan(0L));
+        MatcherAssert.assertThat(inFlight.get(), Matchers.equalTo(recordingSize + offHeap.get()));
+        MatcherAssert.assertThat(arena.getUsedBytes(), Matchers.equalTo(0L));
+        MatcherAssert.assertThat(controller.getBytesInFlight(), Matchers.equalTo(0L));
+    }
+
+    @Test
+    void shouldReturnCachedOffHeapStorageWhenEvicted() throws Exception {
+        ParsedRecordingCache cache = new ParsedRecordingCache();
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                        .offHeapEventStorage(true)
+                        .parsedRecordingCache(cache)
+                        .build();
+        OffHeapItemCollection.Arena arena = generator.getOffHeapArena();
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            generator.generateEvalMapInterruptibly("sample", is, rule -> true).get();
+        }
+        long cached = arena.getUsedBytes();
+        MatcherAssert.assertThat(cached, Matchers.greaterThan(0L));
+
+        generator.generateEvalMapInterruptibly("sample", recording, rule -> true).get();
+        MatcherAssert.assertThat(arena.getUsedBytes(), Matchers.equalTo(cached));
+
+        cache.invalidate("sample");
+        MatcherAssert.assertThat(arena.getUsedBytes(), Matchers.equalTo(0L));
+    }
+
+    @Test
+    void shouldProduceSameEvalMapWithVirtualThreads() throws Exception {
+        Map<String, AnalysisResult> expected;
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            expected = generator.generateEvalMapInterruptibly(is, rule -> true).get();
+        }
+
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                        .virtualThreads(true)
+                        .build();
+        Map<String, AnalysisResult> actual;
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            actual = generator.generateEvalMapInterruptibly(is, rule -> true).get();
+        }
+
+        assertSameEvalMap(expected, actual);
+    }
+
+    @Test
+    void shouldProduceSameEvalMapFromPath() throws Exception {
+        Map<String, AnalysisResult> expected;
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            expected = generator.generateEvalMapInterruptibly(is, rule -> true).get();
+        }
+
+        Map<String, AnalysisResult> actual =
+                generator.generateEvalMapInterruptibly(getJfrFile().toPath(), rule -> true).get();
+
+        assertSameEvalMap(expected, actual);
+    }
+
+    @Test
+    void shouldProduceSameEvalMapForWindowCoveringRecording() throws Exception {
+        Map<String, AnalysisResult> expected;
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            expected = generator.generateEvalMapInterruptibly(is, rule -> true).get();
+        }
+
+        Map<String, AnalysisResult> actual =
+                generator
+                        .generateEvalMapInterruptibly(
+                                null,
+                                getJfrFile().toPath(),
+                                rule -> true,
+                                window(0, Long.MAX_VALUE),
+                                (id, r) -> {})
+                        .get();
+
+        assertSameEvalMap(expected, actual);
+    }
+
+    @Test
+    void shouldOnlyParseChunksWithinWindow() throws Exception {
+        List<Long> bytesParsed = new CopyOnWriteArrayList<>();
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                        .metricsListener(
+                                new ReportMetricsListener() {
+                                    @Override
+                                    public void recordingParsed(long bytesRead, long wallNanos) {
+                                        bytesParsed.add(bytesRead);
+                                    }
+                                })
+                        .build();
+
+        Map<String, AnalysisResult> scoreMap =
+                generator
+                        .generateEvalMapInterruptibly(
+                                null,
+                                getJfrFile().toPath(),
+                                rule -> true,
+                                window(SECOND_CHUNK_START_NANOS + 1, SECOND_CHUNK_START_NANOS + 2),
+                                (id, r) -> {})
+                        .get();
+
+        MatcherAssert.assertThat(
+                scoreMap.size(),
+                Matchers.equalTo(RuleRegistry.getRules().size() + CUSTOM_RULES_SIZE));
+        MatcherAssert.assertThat(bytesParsed, Matchers.contains(SECOND_CHUNK_SIZE));
+    }
+
+    @Test
+    void shouldProduceEvalMapForWindowOutsideRecording() throws Exception {
+        Map<String, AnalysisResult> scoreMap =
+                generator
+                        .generateEvalMapInterruptibly(
+                                null,
+                                getJfrFile().toPath(),
+                                rule -> true,
+                                window(0, 1_000_000),
+                                (id, r) -> {})
+                        .get();
+
+        MatcherAssert.assertThat(
+                scoreMap.size(),
+                Matchers.equalTo(RuleRegistry.getRules().size() + CUSTOM_RULES_SIZE));
+    }
+
+    @Test
+    void shouldFailReportFromMissingPath() throws Exception {
+        Future<Map<String, AnalysisResult>> scoreMap =
+                generator.generateEvalMapInterruptibly(
+                        Paths.get("does-not-exist.jfr"), rule -> true);
+
+        ExecutionException ee = Assertions.assertThrows(ExecutionException.class, scoreMap::get);
+        MatcherAssert.assertThat(ee.getCause(), Matchers.instanceOf(IOException.class));
+    }
+
+    @Test
+    void shouldAnswerFromResultStoreWithoutReadingRecording() throws Exception {
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                        .resultStore(new LruAnalysisResultStore())
+                        .build();
+        Map<String, AnalysisResult> expected;
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            expected = generator.generateEvalMapInterruptibly("key", is, rule -> true).get();
+        }
+
+        Map<String, AnalysisResult> listened = new ConcurrentHashMap<>();
+        Map<String, AnalysisResult> actual =
+                generator
+                        .generateEvalMapInterruptibly("key", recording, rule -> true, listened::put)
+                        .get();
+
+        Mockito.verify(recording).close();
+        Mockito.verifyNoMoreInteractions(recording);
+        MatcherAssert.assertThat(actual.keySet(), Matchers.equalTo(expected.keySet()));
+        MatcherAssert.assertThat(listened.keySet(), Matchers.equalTo(expected.keySet()));
+        for (String id : expected.keySet()) {
+            MatcherAssert.assertThat(
+                    id, actual.get(id).getScore(), Matchers.equalTo(expected.get(id).getScore()));
+        }
+    }
+
+    @Test
+    void shouldNotStoreTimedOutResults() throws Exception {
+        LruAnalysisResultStore store = new LruAnalysisResultStore();
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                        .resultStore(store)
+                        .ruleTimeout(Duration.ofNanos(1))
+                        .build();
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            generator.generateEvalMapInterruptibly("key", is, rule -> true).get();
+        }
+
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                        .resultStore(store)
+                        .build();
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            Map<String, AnalysisResult> scoreMap =
+                    generator.generateEvalMapInterruptibly("key", is, rule -> true).get();
+            MatcherAssert.assertThat(
+                    scoreMap.values().stream()
+                            .filter(r -> r.getEvaluation().getSummary() != null)
+                            .filter(r -> r.getEvaluation().getSummary().contains("cancelled"))
+                            .count(),
+                    Matchers.equalTo(0L));
+        }
+    }
+
+    @Test
+    void shouldNotStoreDependentResultWhenDependencyIsNotSelected() throws Exception {
+        RuleFilterParser filters = new RuleFilterParser();
+        Map<String, AnalysisResult> expected;
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            expected =
+                    generator
+                            .generateEvalMapInterruptibly(
+                                    is, filters.parse("GarbageCollectionInfoRule,SystemGc"))
+                            .get();
+        }
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                        .resultStore(new LruAnalysisResultStore())
+                        .build();
+        for (String filter : List.of("GarbageCollectionInfoRule", "SystemGc")) {
+            try (InputStream is = new FileInputStream(getJfrFile())) {
+                generator.generateEvalMapInterruptibly("key", is, filters.parse(filter)).get();
+            }
+        }
+
+        Map<String, AnalysisResult> actual;
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            actual =
+                    generator
+                            .generateEvalMapInterruptibly(
+                                    "key", is, filters.parse("GarbageCollectionInfoRule,SystemGc"))
+                            .get();
+        }
+
+        MatcherAssert.assertThat(
+                expected.get("SystemGc").getScore(),
+                Matchers.not(Matchers.equalTo((double) Severity.NA.getLimit())));
+        MatcherAssert.assertThat(
+                actual.get("SystemGc").getScore(),
+                Matchers.equalTo(expected.get("SystemGc").getScore()));
+    }
+
+    @Test
+    void shouldChargeStreamsOfUnknownSizeAgainstByteBudget() throws Exception {
+        ReportAdmissionController controller = new ReportAdmissionController(2, 1000, 10);
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                        .admissionController(controller)
+                        .build();
+        CountDownLatch mayRead = new CountDownLatch(1);
+        try (InputStream network =
+                        new RecordingThreadInputStream(
+                                getJfrFile(), ConcurrentHashMap.newKeySet(), mayRead) {
+                            @Override
+                            public int available() {
+                                return 0;
+                            }
+                        };
+                InputStream sized =
+                        new RecordingThreadInputStream(
+                                getJfrFile(), ConcurrentHashMap.newKeySet(), mayRead)) {
+            Future<Map<String, AnalysisResult>> unknown =
+                    generator.generateEvalMapInterruptibly(network, rule -> true);
+            MatcherAssert.assertThat(controller.getBytesInFlight(), Matchers.equalTo(500L));
+
+            Future<Map<String, AnalysisResult>> hinted =
+                    generator.generateEvalMapInterruptibly(null, sized, 300, rule -> true);
+            MatcherAssert.assertThat(controller.getBytesInFlight(), Matchers.equalTo(800L));
+
+            mayRead.countDown();
+            unknown.get();
+            hinted.get();
+        }
+        MatcherAssert.assertThat(controller.getBytesInFlight(), Matchers.equalTo(0L));
+    }
+
+    @Test
+    void shouldRejectReportWhenAdmissionLimitReached() throws Exception {
+        ReportAdmissionController controller = new ReportAdmissionController(1, 1024, 0);
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                        .admissionController(controller)
+                        .build();
+        ReportAdmissionController.Permit permit = controller.acquire(0).get();
+
+        Future<Map<String, AnalysisResult>> scoreMap =
+                generator.generateEvalMapInterruptibly(recording, rule -> true);
+
+        ExecutionException ee = Assertions.assertThrows(ExecutionException.class, scoreMap::get);
+        MatcherAssert.assertThat(
+                ee.getCause(),
+                Matchers.instanceOf(ReportAdmissionController.ReportRejectedException.class));
+        Mockito.verify(recording).close();
+
+        permit.release();
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            generator.generateEvalMapInterruptibly(is, rule -> true).get();
+        }
+        MatcherAssert.assertThat(controller.getActiveReports(), Matchers.equalTo(0));
+    }
+
+    @Test
+    void shouldProduceEvalMapPerRecordingInBatch() throws Exception {
+        Map<String, Path> recordings = new LinkedHashMap<>();
+        recordings.put("first", getJfrFile().toPath());
+        recordings.put("missing", Paths.get("does-not-exist.jfr"));
+        recordings.put("second", getJfrFile().toPath());
+
+        Map<String, Future<Map<String, AnalysisResult>>> reports =
+                generator.generateEvalMapsFromPaths(recordings, rule -> true);
+
+        MatcherAssert.assertThat(reports.keySet(), Matchers.contains("first", "missing", "second"));
+        MatcherAssert.assertThat(
+                reports.get("first").get().size(),
+                Matchers.equalTo(RuleRegistry.getRules().size() + CUSTOM_RULES_SIZE));
+        MatcherAssert.assertThat(
+                reports.get("second").get().size(),
+                Matchers.equalTo(RuleRegistry.getRules().size() + CUSTOM_RULES_SIZE));
+        ExecutionException ee =
+                Assertions.assertThrows(ExecutionException.class, reports.get("missing")::get);
+        MatcherAssert.assertThat(ee.getCause(), Matchers.instanceOf(IOException.class));
+    }
+
+    @Test
+    void shouldReportParseAndRuleMetrics() throws Exception {
+        Map<String, long[]> ruleMetrics = new ConcurrentHashMap<>();
+        List<Long> bytesParsed = new CopyOnWriteArrayList<>();
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                        .metricsListener(
+                                new ReportMetricsListener() {
+                                    @Override
+                                    public void recordingParsed(long bytesRead, long wallNanos) {
+                                        bytesParsed.add(bytesRead);
+                                    }
+
+                                    @Override
+                                    public void ruleEvaluated(
+                                            String ruleId,
+                                            long wallNanos,
+                                            long cpuNanos,
+                                            long allocatedBytes) {
+                                        ruleMetrics.put(
+                                                ruleId,
+                                                new long[] {wallNanos, cpuNanos, allocatedBytes});
+                                    }
+                                })
+                        .build();
+        Map<String, AnalysisResult> scoreMap;
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            scoreMap = generator.generateEvalMapInterruptibly(is, rule -> true).get();
+        }
+
+        MatcherAssert.assertThat(bytesParsed, Matchers.contains(getJfrFile().length()));
+        MatcherAssert.assertThat(ruleMetrics.keySet(), Matchers.not(Matchers.empty()));
+        MatcherAssert.assertThat(
+                scoreMap.keySet(), Matchers.hasItems(ruleMetrics.keySet().toArray(new String[0])));
+        for (long[] metrics : ruleMetrics.values()) {
+            MatcherAssert.assertThat(metrics[0], Matchers.greaterThan(0L));
+            MatcherAssert.assertThat(metrics[1], Matchers.greaterThanOrEqualTo(-1L));
+            MatcherAssert.assertThat(metrics[2], Matchers.greaterThanOrEqualTo(-1L));
+        }
+    }
+
+    @Test
+    void shouldEvaluateDependentRuleAfterItsDependencyOnExecutorThreads() throws Exception {
+        Queue<String> evaluations = new ConcurrentLinkedQueue<>();
+        generator =
+                InterruptibleReportGenerator.Builder.create(
+                                Executors.newFixedThreadPool(2, r -> new Thread(r, "evaluator")))
+                        .rules(
+                                List.of(
+                                        new DependentRule(Severity.INFO, evaluations),
+                                        new DependencyRule(Severity.WARNING, evaluations)))
+                        .build();
+        Map<String, AnalysisResult> scoreMap;
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            scoreMap = generator.generateEvalMapInterruptibly(is, rule -> true).get();
+        }
+
+        MatcherAssert.assertThat(
+                evaluations,
+                Matchers.contains("DependencyRule@evaluator", "DependentRule@evaluator"));
+        MatcherAssert.assertThat(
+                scoreMap.get("DependentRule").getScore(),
+                Matchers.equalTo((double) Severity.INFO.getLimit()));
+    }
+
+    @Test
+    void shouldNotEvaluateDependentRuleWhenDependencyIsBelowRequiredSeverity() throws Exception {
+        Queue<String> evaluations = new ConcurrentLinkedQueue<>();
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                        .rules(
+                                List.of(
+                                        new DependentRule(Severity.INFO, evaluations),
+                                        new DependencyRule(Severity.OK, evaluations)))
+                        .build();
+        Map<String, AnalysisResult> scoreMap;
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            scoreMap = generator.generateEvalMapInterruptibly(is, rule -> true).get();
+        }
+
+        MatcherAssert.assertThat(evaluations, Matchers.hasSize(1));
+        MatcherAssert.assertThat(
+                scoreMap.get("DependentRule").getScore(),
+                Matchers.equalTo((double) Severity.NA.getLimit()));
+    }
+
+    @Test
+    void shouldNotStoreDependentRuleResultWhenDependencyFails() throws Exception {
+        Queue<String> evaluations = new ConcurrentLinkedQueue<>();
+        Map<String, AnalysisResult> stored = new ConcurrentHashMap<>();
+        Map<String, AnalysisResult> listened = new ConcurrentHashMap<>();
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                        .rules(
+                                List.of(
+                                        new DependentRule(Severity.INFO, evaluations),
+                                        new DependencyRule(null, evaluations)))
+                        .resultStore(
+                                new AnalysisResultStore() {
+                                    @Override
+                                    public Optional<AnalysisResult> get(String key) {
+                                        return Optional.ofNullable(stored.get(key));
+                                    }
+
+                                    @Override
+                                    public void put(String key, AnalysisResult result) {
+                                        stored.put(key, result);
+                                    }
+                                })
+                        .build();
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            Future<Map<String, AnalysisResult>> scoreMap =
+                    generator.generateEvalMapInterruptibly("key", is, rule -> true, listened::put);
+            ExecutionException ee =
+                    Assertions.assertThrows(ExecutionException.class, scoreMap::get);
+            // the failure of the rule's own evaluation future is passed on as its cause
+            MatcherAssert.assertThat(
+                    ee.getCause().getCause(), Matchers.instanceOf(IllegalStateException.class));
+        }
+
+        MatcherAssert.assertThat(evaluations, Matchers.contains("DependencyRule@failed"));
+        MatcherAssert.assertThat(
+                listened.get("DependentRule").getScore(),
+                Matchers.equalTo((double) Severity.NA.getLimit()));
+        MatcherAssert.assertThat(stored, Matchers.anEmptyMap());
+    }
+
+    @Test
+    void shouldKeyStoredResultsOnRuleVersion() throws Exception {
+        Map<String, AnalysisResult> stored = new ConcurrentHashMap<>();
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                        .rules(
+                                List.of(
+                                        new DependencyRule(
+                                                Severity.OK, new ConcurrentLinkedQueue<>()),
+                                        new SystemGcRule()))
+                        .resultStore(
+                                new AnalysisResultStore() {
+                                    @Override
+                                    public Optional<AnalysisResult> get(String key) {
+                                        return Optional.ofNullable(stored.get(key));
+                                    }
+
+                                    @Override
+                                    public void put(String key, AnalysisResult result) {
+                                        stored.put(key, result);
+                                    }
+                                })
+                        .build();
+        try (InputStream is = new FileInputStream(getJfrFile())) {
+            generator.generateEvalMapInterruptibly("key", is, rule -> true).get();
+        }
+
+        // the test rule is not loaded from a versioned jar, so its result is not stored
+        MatcherAssert.assertThat(stored.keySet(), Matchers.hasSize(1));
+        String key = stored.keySet().iterator().next();
+        MatcherAssert.assertThat(
+                key, Matchers.startsWith("key/SystemGc/" + SystemGcRule.class.getName() + "@"));
+        MatcherAssert.assertThat(key, Matchers.not(Matchers.containsString("@null")));
+    }
+
+    private static void assertSameEvalMap(
+            Map<String, AnalysisResult> expected, Map<String, AnalysisResult> actual) {
+        MatcherAssert.assertThat(actual.keySet(), Matchers.equalTo(expected.keySet()));
+        for (String id : expected.keySet()) {
+            MatcherAssert.assertThat(
+                    id, actual.get(id).getScore(), Matchers.equalTo(expected.get(id).getScore()));
+            MatcherAssert.assertThat(
+                    id,
+                    actual.get(id).getEvaluation().getSummary(),
+                    Matchers.equalTo(expected.get(id).getEvaluation().getSummary()));
+        }
+    }
+
+    /** Keeps the items which it was last evaluated against. */
+    static class ItemsRule extends TestRule {
+        volatile IItemCollection items;
+
+        ItemsRule() {
+            super(Severity.OK, new ConcurrentLinkedQueue<>());
+        }
+
+        @Override
+        public RunnableFuture<IResult> createEvaluation(
+                IItemCollection items,
+                IPreferenceValueProvider preferences,
+                IResultValueProvider dependencyResults) {
+            this.items = items;
+            return super.createEvaluation(items, preferences, dependencyResults);
+        }
+    }
+
+    /** Records the threads which read the recording, and blocks them until the latch opens. */
+    static class RecordingThreadInputStream extends FilterInputStream {
+        private final Set<String> readers;
+        private final CountDownLatch mayRead;
+
+        RecordingThreadInputStream(File file, Set<String> readers, CountDownLatch mayRead)
+                throws IOException {
+            super(new FileInputStream(file));
+            this.readers = readers;
+            this.mayRead = mayRead;
+        }
+
+        @Override
+        public int read() throws IOException {
+            awaitRead();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            awaitRead();
+            return super.read(b, off, len);
+        }
+
+        private void awaitRead() throws IOException {
+            readers.add(Thread.currentThread().getName());
+            try {
+                if (!mayRead.await(30, TimeUnit.SECONDS)) {
+                    throw new IOException("timed out waiting to read");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+    }
+
+    @Test
+    void shouldExcludeSamplesOutsideWindow() throws Exception {
+        long windowStart = SECOND_CHUNK_START_NANOS + TimeUnit.SECONDS.toNanos(5);
+        long windowEnd = SECOND_CHUNK_START_NANOS + TimeUnit.SECONDS.toNanos(10);
+        ItemsRule rule = new ItemsRule();
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(1))
+                        .rules(List.of(rule))
+                        .build();
+        generator
+                .generateEvalMapInterruptibly(
+                        null,
+                        getJfrFile().toPath(),
+                        r -> true,
+                        window(windowStart, windowEnd),
+                        (id, r) -> {})
+                .get();
+
+        List<Long> cpuLoadTimes = startTimes(rule.items, "jdk.CPULoad");
+        MatcherAssert.assertThat(cpuLoadTimes, Matchers.not(Matchers.empty()));
+        MatcherAssert.assertThat(
+                cpuLoadTimes,
+                Matchers.everyItem(
+                        Matchers.both(Matchers.greaterThanOrEqualTo(windowStart))
+                                .and(Matchers.lessThanOrEqualTo(windowEnd))));
+        // the chunk does have samples outside of the window, which were excluded
+        generator.generateEvalMapInterruptibly(getJfrFile().toPath(), r -> true).get();
+        MatcherAssert.assertThat(
+                startTimes(rule.items, "jdk.CPULoad").size(),
+                Matchers.greaterThan(cpuLoadTimes.size()));
+        // but the chunk's configuration is kept
+        MatcherAssert.assertThat(
+                rule.items.apply(ItemFilters.type("jdk.JVMInformation")).hasItems(),
+                Matchers.is(true));
+    }
+
+    private static List<Long> startTimes(IItemCollection items, String typeId) {
+        List<Long> times = new ArrayList<>();
+        for (IItemIterable iterable : items.apply(ItemFilters.type(typeId))) {
+            IMemberAccessor<IQuantity, IItem> accessor =
+                    JfrAttributes.START_TIME.getAccessor(iterable.getType());
+            for (IItem item : iterable) {
+                times.add(accessor.getMember(item).clampedLongValueIn(UnitLookup.EPOCH_NS));
+            }
+        }
+        return times;
+    }
+
+    private static IRange<IQuantity> window(long startNanos, long endNanos) {
+        return QuantityRange.createWithEnd(
+                UnitLookup.EPOCH_NS.quantity(startNanos), UnitLookup.EPOCH_NS.quantity(endNanos));
+    }
+
     private synchronized File getJfrFile() throws Exception {
         return Paths.get(getClass().getResource("/profiling_sample.jfr").toURI()).toFile();
     }
+
+    private abstract static class TestRule implements IRule {
+        private final Severity severity;
+        private final Queue<String> evaluations;
+
+        /**
+         * @param severity of the rule's result, or null for the evaluation to fail
+         */
+        TestRule(Severity severity, Queue<String> evaluations) {
+            this.severity = severity;
+            this.evaluations = evaluations;
+        }
+
+        @Override
+        public RunnableFuture<IResult> createEvaluation(
+                IItemCollection items,
+                IPreferenceValueProvider preferences,
+                IResultValueProvider dependencyResults) {
+            return new FutureTask<>(
+                    () -> {
+                        if (severity == null) {
+                            evaluations.add(getId() + "@failed");
+                            throw new IllegalStateException(getId() + " failed");
+                        }
+                        evaluations.add(getId() + "@" + Thread.currentThread().getName());
+                        return ResultBuilder.createFor(this, preferences)
+                                .setSeverity(severity)
+                                .build();
+                    });
+        }
+
+        @Override
+        public String getId() {
+            return getClass().getSimpleName();
+        }
+
+        @Override
+        public String getName() {
+            return getId();
+        }
+
+        @Override
+        public String getTopic() {
+            return "test";
+        }
+
+        @Override
+        public Map<String, EventAvailability> getRequiredEvents() {
+            return Map.of();
+        }
+
+        @Override
+        public Collection<TypedPreference<?>> getConfigurationAttributes() {
+            return List.of();
+        }
+
+        @Override
+        public Collection<TypedResult<?>> getResults() {
+            return List.of();
+        }
+    }
+
+    private static class DependencyRule extends TestRule {
+        DependencyRule(Severity severity, Queue<String> evaluations) {
+            super(severity, evaluations);
+        }
+    }
+
+    @DependsOn(value = DependencyRule.class, severity = Severity.WARNING)
+    private static class DependentRule extends TestRule {
+        DependentRule(Severity severity, Queue<String> evaluations) {
+            super(severity, evaluations);
+        }
+    }
 }
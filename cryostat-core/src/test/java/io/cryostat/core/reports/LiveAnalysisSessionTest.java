@@ -0,0 +1,294 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.reports;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.flightrecorder.rules.RuleRegistry;
+
+import io.cryostat.core.reports.InterruptibleReportGenerator.AnalysisResult;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class LiveAnalysisSessionTest {
+
+    // profiling_sample.jfr has two chunks, the second about 22 seconds long
+    static final int SECOND_CHUNK_OFFSET = 1565188;
+    // rules which derive trends or rates from the sequence of samples, and whose scores differ
+    // when chunks are parsed separately
+    static final Set<String> ORDER_SENSITIVE_RULES =
+            Set.of("Exceptions", "IncreasingMetaSpaceLiveSet");
+
+    InterruptibleReportGenerator generator;
+    Path file;
+    byte[] recording;
+
+    @BeforeEach
+    void setup() throws Exception {
+        generator = new InterruptibleReportGenerator(Executors.newWorkStealingPool(2));
+        file = Paths.get(getClass().getResource("/profiling_sample.jfr").toURI());
+        recording = Files.readAllBytes(file);
+    }
+
+    @Test
+    void shouldOnlyParseNewChunks() throws Exception {
+        LiveAnalysisSession session =
+                new LiveAnalysisSession(generator, rule -> true, Duration.ofHours(1));
+
+        MatcherAssert.assertThat(session.addChunks(secondChunk()).get(), Matchers.equalTo(1));
+        MatcherAssert.assertThat(session.addChunks(whole()).get(), Matchers.equalTo(1));
+        MatcherAssert.assertThat(session.addChunks(whole()).get(), Matchers.equalTo(0));
+        MatcherAssert.assertThat(session.getChunkCount(), Matchers.equalTo(2));
+    }
+
+    @Test
+    void shouldDropChunksOutsideWindow() throws Exception {
+        LiveAnalysisSession session =
+                new LiveAnalysisSession(generator, rule -> true, Duration.ofSeconds(1));
+
+        session.addChunks(whole()).get();
+        MatcherAssert.assertThat(session.getChunkCount(), Matchers.equalTo(1));
+
+        // the first chunk is now known to be older than the window, so is not parsed again
+        MatcherAssert.assertThat(session.addChunks(whole()).get(), Matchers.equalTo(0));
+        MatcherAssert.assertThat(session.getChunkCount(), Matchers.equalTo(1));
+    }
+
+    @Test
+    void shouldProduceSameEvalMapAsWholeRecording() throws Exception {
+        Map<String, AnalysisResult> expected;
+        try (InputStream is = new FileInputStream(file.toFile())) {
+            expected = generator.generateEvalMapInterruptibly(is, rule -> true).get();
+        }
+        LiveAnalysisSession session =
+                new LiveAnalysisSession(generator, rule -> true, Duration.ofHours(1));
+        session.addChunks(whole()).get();
+
+        Map<String, AnalysisResult> actual = session.refresh().get();
+
+        MatcherAssert.assertThat(actual.keySet(), Matchers.equalTo(expected.keySet()));
+        for (String id : expected.keySet()) {
+            if (ORDER_SENSITIVE_RULES.contains(id)) {
+                continue;
+            }
+            // events are aggregated chunk by chunk, so floating point sums may differ slightly
+            MatcherAssert.assertThat(
+                    id,
+                    actual.get(id).getScore(),
+                    Matchers.closeTo(expected.get(id).getScore(), 1e-9));
+        }
+    }
+
+    @Test
+    void shouldReuseResultsUntilNewChunksAdded() throws Exception {
+        LiveAnalysisSession session =
+                new LiveAnalysisSession(generator, rule -> true, Duration.ofHours(1));
+        session.addChunks(secondChunk()).get();
+
+        Future<Map<String, AnalysisResult>> first = session.refresh();
+        MatcherAssert.assertThat(session.refresh(), Matchers.sameInstance(first));
+        MatcherAssert.assertThat(
+                first.get().size(), Matchers.equalTo(RuleRegistry.getRules().size() + 1));
+
+        session.addChunks(whole()).get();
+        MatcherAssert.assertThat(session.refresh(), Matchers.not(Matchers.sameInstance(first)));
+    }
+
+    @Test
+    void shouldReanalyzeAfterCancelledRefresh() throws Exception {
+        LiveAnalysisSession session =
+                new LiveAnalysisSession(generator, rule -> true, Duration.ofHours(1));
+        session.addChunks(secondChunk()).get();
+
+        Future<Map<String, AnalysisResult>> first = session.refresh();
+        first.cancel(true);
+
+        Future<Map<String, AnalysisResult>> second = session.refresh();
+        MatcherAssert.assertThat(second, Matchers.not(Matchers.sameInstance(first)));
+        MatcherAssert.assertThat(
+                second.get().size(), Matchers.equalTo(RuleRegistry.getRules().size() + 1));
+    }
+
+    @Test
+    void shouldReanalyzeAfterFailedRefresh() throws Exception {
+        InterruptibleReportGenerator failing = Mockito.spy(generator);
+        Map<String, AnalysisResult> results = Map.of();
+        Mockito.doReturn(CompletableFuture.failedFuture(new IllegalStateException()))
+                .doReturn(CompletableFuture.completedFuture(results))
+                .when(failing)
+                .generateEvalMapInterruptibly(Mockito.any(IItemCollection.class), Mockito.any());
+        LiveAnalysisSession session =
+                new LiveAnalysisSession(failing, rule -> true, Duration.ofHours(1));
+        session.addChunks(secondChunk()).get();
+
+        Assertions.assertThrows(ExecutionException.class, () -> session.refresh().get());
+
+        MatcherAssert.assertThat(session.refresh().get(), Matchers.sameInstance(results));
+        MatcherAssert.assertThat(session.refresh().get(), Matchers.sameInstance(results));
+        Mockito.verify(failing, Mockito.times(2))
+                .generateEvalMapInterruptibly(Mockito.any(IItemCollection.class), Mockito.any());
+    }
+
+    @Test
+    void shouldIgnoreIncompleteTrailingChunk() throws Exception {
+        LiveAnalysisSession session =
+                new LiveAnalysisSession(generator, rule -> true, Duration.ofHours(1));
+        byte[] truncated = Arrays.copyOf(recording, SECOND_CHUNK_OFFSET + 1000);
+
+        MatcherAssert.assertThat(
+                session.addChunks(new ByteArrayInputStream(truncated)).get(), Matchers.equalTo(1));
+    }
+
+    @Test
+    void shouldReadChunksOnParsingExecutorWithoutBlockingCaller() throws Exception {
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(2))
+                        .parsingExecutor(
+                                Executors.newSingleThreadExecutor(r -> new Thread(r, "parser")))
+                        .build();
+        LiveAnalysisSession session =
+                new LiveAnalysisSession(generator, rule -> true, Duration.ofHours(1));
+        Set<String> readers = ConcurrentHashMap.newKeySet();
+        CountDownLatch mayRead = new CountDownLatch(1);
+
+        CompletableFuture<Integer> added = session.addChunks(blockedUntil(mayRead, readers));
+        MatcherAssert.assertThat(added.isDone(), Matchers.is(false));
+
+        mayRead.countDown();
+        MatcherAssert.assertThat(added.get(30, TimeUnit.SECONDS), Matchers.equalTo(2));
+        MatcherAssert.assertThat(readers, Matchers.equalTo(Set.of("parser")));
+    }
+
+    @Test
+    void shouldRejectChunksBeyondAdmissionLimit() throws Exception {
+        ReportAdmissionController controller = new ReportAdmissionController(1, 1000, 0);
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(2))
+                        .admissionController(controller)
+                        .build();
+        LiveAnalysisSession session =
+                new LiveAnalysisSession(generator, rule -> true, Duration.ofHours(1));
+        CountDownLatch mayRead = new CountDownLatch(1);
+
+        CompletableFuture<Integer> first =
+                session.addChunks(blockedUntil(mayRead, ConcurrentHashMap.newKeySet()));
+        CompletableFuture<Integer> second = session.addChunks(whole());
+
+        ExecutionException ee =
+                Assertions.assertThrows(
+                        ExecutionException.class, () -> second.get(30, TimeUnit.SECONDS));
+        MatcherAssert.assertThat(
+                ee.getCause(),
+                Matchers.instanceOf(ReportAdmissionController.ReportRejectedException.class));
+        mayRead.countDown();
+        MatcherAssert.assertThat(first.get(30, TimeUnit.SECONDS), Matchers.equalTo(2));
+        MatcherAssert.assertThat(controller.getActiveReports(), Matchers.equalTo(0));
+    }
+
+    @Test
+    void shouldReleaseOffHeapChunksWhenDroppedOrClosed() throws Exception {
+        generator =
+                InterruptibleReportGenerator.Builder.create(Executors.newWorkStealingPool(2))
+                        .offHeapEventStorage(true)
+                        .build();
+        OffHeapItemCollection.Arena arena = generator.getOffHeapArena();
+        LiveAnalysisSession session =
+                new LiveAnalysisSession(generator, rule -> true, Duration.ofSeconds(1));
+
+        // only the first chunk has columns large enough to be stored off the heap
+        session.addChunks(whole()).get();
+        MatcherAssert.assertThat(session.getChunkCount(), Matchers.equalTo(1));
+        MatcherAssert.assertThat(arena.getAllocatedBytes(), Matchers.greaterThan(0L));
+        MatcherAssert.assertThat(arena.getUsedBytes(), Matchers.equalTo(0L));
+
+        session = new LiveAnalysisSession(generator, rule -> true, Duration.ofHours(1));
+        session.addChunks(whole()).get();
+        MatcherAssert.assertThat(arena.getUsedBytes(), Matchers.greaterThan(0L));
+
+        session.refresh().get();
+        session.close();
+        MatcherAssert.assertThat(session.getChunkCount(), Matchers.equalTo(0));
+        MatcherAssert.assertThat(arena.getUsedBytes(), Matchers.equalTo(0L));
+    }
+
+    @Test
+    void shouldRejectEmptyWindow() {
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> new LiveAnalysisSession(generator, rule -> true, Duration.ZERO));
+    }
+
+    private InputStream blockedUntil(CountDownLatch mayRead, Set<String> readers) {
+        return new FilterInputStream(whole()) {
+            @Override
+            public int read() throws IOException {
+                await();
+                return super.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                await();
+                return super.read(b, off, len);
+            }
+
+            private void await() throws IOException {
+                readers.add(Thread.currentThread().getName());
+                try {
+                    if (!mayRead.await(30, TimeUnit.SECONDS)) {
+                        throw new IOException("Timed out waiting to read");
+                    }
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        };
+    }
+
+    private InputStream whole() {
+        return new ByteArrayInputStream(recording);
+    }
+
+    private InputStream secondChunk() {
+        return new ByteArrayInputStream(
+                Arrays.copyOfRange(recording, SECOND_CHUNK_OFFSET, recording.length));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.reports;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import io.cryostat.core.reports.InterruptibleReportGenerator.AnalysisResult;
+import io.cryostat.core.reports.InterruptibleReportGenerator.AnalysisResult.Evaluation;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LruAnalysisResultStoreTest {
+
+    @TempDir Path tempDir;
+
+    @Test
+    void shouldReturnEmptyForUnknownKey() {
+        LruAnalysisResultStore store = new LruAnalysisResultStore();
+        MatcherAssert.assertThat(store.get("unknown"), Matchers.equalTo(Optional.empty()));
+    }
+
+    @Test
+    void shouldReturnStoredResult() {
+        LruAnalysisResultStore store = new LruAnalysisResultStore();
+        AnalysisResult result = result("Rule", 50);
+        store.put("key", result);
+        MatcherAssert.assertThat(store.get("key").get(), Matchers.sameInstance(result));
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsedResults() {
+        LruAnalysisResultStore store = new LruAnalysisResultStore(2, null);
+        store.put("a", result("A", 1));
+        store.put("b", result("B", 2));
+        store.get("a");
+        store.put("c", result("C", 3));
+
+        MatcherAssert.assertThat(store.get("a").isPresent(), Matchers.is(true));
+        MatcherAssert.assertThat(store.get("b").isPresent(), Matchers.is(false));
+        MatcherAssert.assertThat(store.get("c").isPresent(), Matchers.is(true));
+    }
+
+    @Test
+    void shouldReadEvictedResultsBackFromDirectory() {
+        LruAnalysisResultStore store = new LruAnalysisResultStore(1, tempDir);
+        store.put("a", result("A", 1));
+        store.put("b", result("B", 2));
+
+        assertSame(store.get("a").get(), result("A", 1));
+        assertSame(store.get("b").get(), result("B", 2));
+    }
+
+    @Test
+    void shouldKeepResultsAcrossInstances() {
+        new LruAnalysisResultStore(1, tempDir).put("a", result("A", 1));
+
+        LruAnalysisResultStore store = new LruAnalysisResultStore(1, tempDir);
+        assertSame(store.get("a").get(), result("A", 1));
+        MatcherAssert.assertThat(store.get("b").isPresent(), Matchers.is(false));
+    }
+
+    @Test
+    void shouldRoundTripSerializedForm() throws Exception {
+        AnalysisResult result = result("Rule", 75.5);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            result.writeTo(out);
+        }
+        AnalysisResult read =
+                AnalysisResult.readFrom(
+                        new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertSame(read, result);
+    }
+
+    private static AnalysisResult result(String name, double score) {
+        Evaluation evaluation =
+                new Evaluation(
+                        name + " summary",
+                        null,
+                        "solution",
+                        List.of(new Evaluation.Suggestion("setting", "jdk.CPULoad", "1 s")));
+        return new AnalysisResult(name, "topic", score, evaluation);
+    }
+
+    private static void assertSame(AnalysisResult actual, AnalysisResult expected) {
+        MatcherAssert.assertThat(actual.getName(), Matchers.equalTo(expected.getName()));
+        MatcherAssert.assertThat(actual.getTopic(), Matchers.equalTo(expected.getTopic()));
+        MatcherAssert.assertThat(actual.getScore(), Matchers.equalTo(expected.getScore()));
+        MatcherAssert.assertThat(
+                actual.getEvaluation().getSummary(),
+                Matchers.equalTo(expected.getEvaluation().getSummary()));
+        MatcherAssert.assertThat(
+                actual.getEvaluation().getSuggestions(),
+                Matchers.hasSize(expected.getEvaluation().getSuggestions().size()));
+        MatcherAssert.assertThat(
+                actual.getEvaluation().getSuggestions().get(0).getValue(),
+                Matchers.equalTo(expected.getEvaluation().getSuggestions().get(0).getValue()));
+        MatcherAssert.assertThat(actual.getEvaluation().getExplanation(), Matchers.nullValue());
+    }
+}
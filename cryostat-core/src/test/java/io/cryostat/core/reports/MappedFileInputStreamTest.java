@@ -0,0 +1,91 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.reports;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MappedFileInputStreamTest {
+
+    @TempDir Path tempDir;
+
+    Path file;
+    byte[] contents;
+
+    @BeforeEach
+    void setup() throws Exception {
+        contents = new byte[10_000];
+        new Random(1234).nextBytes(contents);
+        file = Files.write(tempDir.resolve("recording.jfr"), contents);
+    }
+
+    @Test
+    void shouldReadWholeFileAcrossRegions() throws Exception {
+        try (InputStream is = new MappedFileInputStream(file, 4096)) {
+            MatcherAssert.assertThat(readAll(is), Matchers.equalTo(contents));
+        }
+    }
+
+    @Test
+    void shouldReadSingleBytes() throws Exception {
+        try (InputStream is = new MappedFileInputStream(file, 4096)) {
+            for (byte b : contents) {
+                MatcherAssert.assertThat(is.read(), Matchers.equalTo(b & 0xff));
+            }
+            MatcherAssert.assertThat(is.read(), Matchers.equalTo(-1));
+        }
+    }
+
+    @Test
+    void shouldSkipAcrossRegions() throws Exception {
+        try (InputStream is = new MappedFileInputStream(file, 4096)) {
+            MatcherAssert.assertThat(is.skip(5000), Matchers.equalTo(5000L));
+            MatcherAssert.assertThat(is.read(), Matchers.equalTo(contents[5000] & 0xff));
+            MatcherAssert.assertThat(is.skip(100_000), Matchers.equalTo(4999L));
+            MatcherAssert.assertThat(is.read(), Matchers.equalTo(-1));
+        }
+    }
+
+    @Test
+    void shouldNotOpenFileUntilRead() throws Exception {
+        InputStream is = new MappedFileInputStream(tempDir.resolve("missing.jfr"));
+        is.close();
+
+        InputStream unread = new MappedFileInputStream(tempDir.resolve("missing.jfr"));
+        Assertions.assertThrows(IOException.class, unread::read);
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1000];
+        int n;
+        while ((n = is.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
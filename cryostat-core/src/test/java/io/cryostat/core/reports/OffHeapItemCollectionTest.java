@@ -0,0 +1,161 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.reports;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RunnableFuture;
+
+import org.openjdk.jmc.common.item.Aggregators;
+import org.openjdk.jmc.common.item.IItem;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.common.item.ItemFilters;
+import org.openjdk.jmc.common.util.IPreferenceValueProvider;
+import org.openjdk.jmc.flightrecorder.JfrAttributes;
+import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
+import org.openjdk.jmc.flightrecorder.rules.IResult;
+import org.openjdk.jmc.flightrecorder.rules.IRule;
+import org.openjdk.jmc.flightrecorder.rules.ResultProvider;
+import org.openjdk.jmc.flightrecorder.rules.RuleRegistry;
+import org.openjdk.jmc.flightrecorder.rules.TypedResult;
+import org.openjdk.jmc.flightrecorder.rules.util.RulesToolkit;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class OffHeapItemCollectionTest {
+
+    IItemCollection original;
+    OffHeapItemCollection.Arena arena;
+    OffHeapItemCollection copy;
+
+    @BeforeEach
+    void setup() throws Exception {
+        File file = Paths.get(getClass().getResource("/profiling_sample.jfr").toURI()).toFile();
+        original = JfrLoaderToolkit.loadEvents(file);
+        arena = new OffHeapItemCollection.Arena(64L * 1024 * 1024);
+        copy = OffHeapItemCollection.copyOf(original, arena);
+    }
+
+    @Test
+    void shouldStoreNumericColumnsOffHeap() {
+        MatcherAssert.assertThat(copy.getOffHeapBytes(), Matchers.greaterThan(0L));
+        MatcherAssert.assertThat(arena.getUsedBytes(), Matchers.equalTo(copy.getOffHeapBytes()));
+    }
+
+    @Test
+    void shouldReturnBuffersToArenaWhenLastReferenceIsClosed() {
+        long used = arena.getUsedBytes();
+        MatcherAssert.assertThat(copy.retain(), Matchers.is(true));
+
+        copy.close();
+        MatcherAssert.assertThat(arena.getUsedBytes(), Matchers.equalTo(used));
+
+        copy.close();
+        MatcherAssert.assertThat(arena.getUsedBytes(), Matchers.equalTo(0L));
+        MatcherAssert.assertThat(copy.retain(), Matchers.is(false));
+
+        OffHeapItemCollection again = OffHeapItemCollection.copyOf(original, arena);
+        MatcherAssert.assertThat(arena.getUsedBytes(), Matchers.equalTo(used));
+        MatcherAssert.assertThat(arena.getAllocatedBytes(), Matchers.equalTo(used));
+        MatcherAssert.assertThat(
+                again.getAggregate(Aggregators.count()),
+                Matchers.equalTo(original.getAggregate(Aggregators.count())));
+    }
+
+    @Test
+    void shouldStoreColumnsOnHeapWhenArenaIsFull() {
+        OffHeapItemCollection.Arena full = new OffHeapItemCollection.Arena(0);
+        OffHeapItemCollection onHeap = OffHeapItemCollection.copyOf(original, full);
+
+        MatcherAssert.assertThat(onHeap.getOffHeapBytes(), Matchers.equalTo(0L));
+        MatcherAssert.assertThat(full.getAllocatedBytes(), Matchers.equalTo(0L));
+        MatcherAssert.assertThat(
+                onHeap.getAggregate(Aggregators.max(JfrAttributes.END_TIME)),
+                Matchers.equalTo(original.getAggregate(Aggregators.max(JfrAttributes.END_TIME))));
+    }
+
+    @Test
+    void shouldPreserveItemCounts() {
+        MatcherAssert.assertThat(
+                copy.getAggregate(Aggregators.count()),
+                Matchers.equalTo(original.getAggregate(Aggregators.count())));
+    }
+
+    @Test
+    void shouldPreserveAttributeValues() {
+        IItemCollection filter = copy.apply(ItemFilters.type("jdk.ExecutionSample"));
+        IItemCollection expected = original.apply(ItemFilters.type("jdk.ExecutionSample"));
+
+        MatcherAssert.assertThat(
+                filter.getAggregate(Aggregators.count()),
+                Matchers.equalTo(expected.getAggregate(Aggregators.count())));
+        MatcherAssert.assertThat(
+                filter.getAggregate(Aggregators.max(JfrAttributes.END_TIME)),
+                Matchers.equalTo(expected.getAggregate(Aggregators.max(JfrAttributes.END_TIME))));
+        MatcherAssert.assertThat(
+                filter.getAggregate(Aggregators.distinct(JfrAttributes.EVENT_THREAD)),
+                Matchers.equalTo(
+                        expected.getAggregate(Aggregators.distinct(JfrAttributes.EVENT_THREAD))));
+    }
+
+    @Test
+    void shouldTreatViewsOfSameRowAsEqual() {
+        IItemIterable iterable =
+                copy.stream().filter(IItemIterable::hasItems).findFirst().orElseThrow();
+        IItem first = iterable.iterator().next();
+        IItem again = iterable.iterator().next();
+
+        MatcherAssert.assertThat(again, Matchers.equalTo(first));
+        MatcherAssert.assertThat(again.hashCode(), Matchers.equalTo(first.hashCode()));
+    }
+
+    @Test
+    void shouldProduceSameRuleResults() throws Exception {
+        for (IRule rule : RuleRegistry.getRules()) {
+            boolean available =
+                    RulesToolkit.matchesEventAvailabilityMap(original, rule.getRequiredEvents());
+            MatcherAssert.assertThat(
+                    rule.getId(),
+                    RulesToolkit.matchesEventAvailabilityMap(copy, rule.getRequiredEvents()),
+                    Matchers.equalTo(available));
+            if (!available) {
+                continue;
+            }
+            Object expected = score(rule, original);
+            MatcherAssert.assertThat(rule.getId(), score(rule, copy), Matchers.equalTo(expected));
+        }
+    }
+
+    /**
+     * @return the rule's score, or the type of exception thrown by its evaluation
+     */
+    private static Object score(IRule rule, IItemCollection items) throws Exception {
+        RunnableFuture<IResult> future =
+                rule.createEvaluation(
+                        items, IPreferenceValueProvider.DEFAULT_VALUES, new ResultProvider());
+        future.run();
+        try {
+            return future.get().getResult(TypedResult.SCORE);
+        } catch (ExecutionException e) {
+            return e.getCause().getClass();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.reports;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmc.common.item.IItem;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.common.item.IMemberAccessor;
+import org.openjdk.jmc.common.item.ItemFilters;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.common.unit.UnitLookup;
+import org.openjdk.jmc.common.util.IPreferenceValueProvider;
+import org.openjdk.jmc.common.util.TypedPreference;
+import org.openjdk.jmc.flightrecorder.JfrAttributes;
+import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
+import org.openjdk.jmc.flightrecorder.rules.IResult;
+import org.openjdk.jmc.flightrecorder.rules.ResultProvider;
+import org.openjdk.jmc.flightrecorder.rules.Severity;
+
+import jdk.jfr.Event;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class QuarkusRestRuleTest {
+
+    private static final int EVENT_COUNT = 200;
+
+    @TempDir static Path tempDir;
+
+    static IItemCollection items;
+    static List<Long> durations;
+
+    @Name("quarkus.Rest")
+    static class RestEvent extends Event {}
+
+    @BeforeAll
+    static void record() throws Exception {
+        Path file = tempDir.resolve("rest.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(RestEvent.class).withoutThreshold();
+            recording.start();
+            // responses of increasing length, so that the percentiles differ from each other
+            for (int i = 1; i <= EVENT_COUNT; i++) {
+                RestEvent event = new RestEvent();
+                event.begin();
+                LockSupport.parkNanos(i * 10_000L);
+                event.commit();
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+        items = JfrLoaderToolkit.loadEvents(file.toFile());
+
+        durations = new ArrayList<>();
+        for (IItemIterable iterable : items.apply(ItemFilters.type("quarkus.Rest"))) {
+            IMemberAccessor<IQuantity, IItem> accessor =
+                    JfrAttributes.DURATION.getAccessor(iterable.getType());
+            for (IItem item : iterable) {
+                durations.add(accessor.getMember(item).clampedLongValueIn(UnitLookup.NANOSECOND));
+            }
+        }
+        Collections.sort(durations);
+    }
+
+    @Test
+    void shouldReportResponseTimePercentiles() throws Exception {
+        IResult result = evaluate(items, IPreferenceValueProvider.DEFAULT_VALUES);
+
+        MatcherAssert.assertThat(durations, Matchers.hasSize(EVENT_COUNT));
+        MatcherAssert.assertThat(result.getSeverity(), Matchers.equalTo(Severity.OK));
+        assertPercentiles(result);
+        MatcherAssert.assertThat(
+                result.getResult(QuarkusRestRule.LONGEST_RESPONSE_TIME)
+                        .clampedLongValueIn(UnitLookup.NANOSECOND),
+                Matchers.equalTo(durations.get(durations.size() - 1)));
+    }
+
+    @Test
+    void shouldReportResponseTimePercentilesWithWarning() throws Exception {
+        IResult result =
+                evaluate(
+                        items,
+                        new IPreferenceValueProvider() {
+                            @Override
+                            @SuppressWarnings("unchecked")
+                            public <T> T getPreferenceValue(TypedPreference<T> preference) {
+                                if (preference == QuarkusRestRule.WRITE_INFO_LIMIT
+                                        || preference == QuarkusRestRule.WRITE_WARNING_LIMIT) {
+                                    return (T) UnitLookup.NANOSECOND.quantity(1);
+                                }
+                                return preference.getDefaultValue();
+                            }
+                        });
+
+        MatcherAssert.assertThat(result.getSeverity(), Matchers.equalTo(Severity.WARNING));
+        assertPercentiles(result);
+    }
+
+    @Test
+    void shouldReportOkWithoutRestEvents() throws Exception {
+        IResult result =
+                evaluate(
+                        items.apply(ItemFilters.type("jdk.ActiveRecording")),
+                        IPreferenceValueProvider.DEFAULT_VALUES);
+
+        MatcherAssert.assertThat(result.getSeverity(), Matchers.equalTo(Severity.OK));
+        MatcherAssert.assertThat(
+                result.getResult(QuarkusRestRule.P50_REST_RESPONSE), Matchers.nullValue());
+    }
+
+    private static IResult evaluate(IItemCollection items, IPreferenceValueProvider preferences)
+            throws Exception {
+        RunnableFuture<IResult> evaluation =
+                new QuarkusRestRule().createEvaluation(items, preferences, new ResultProvider());
+        evaluation.run();
+        return evaluation.get();
+    }
+
+    private static void assertPercentiles(IResult result) {
+        assertWithinOnePercent(result.getResult(QuarkusRestRule.P50_REST_RESPONSE), 50);
+        assertWithinOnePercent(result.getResult(QuarkusRestRule.P95_REST_RESPONSE), 95);
+        assertWithinOnePercent(result.getResult(QuarkusRestRule.P99_REST_RESPONSE), 99);
+    }
+
+    // the nearest-rank percentile of the recorded durations, which DurationHistogram approximates
+    private static void assertWithinOnePercent(IQuantity actual, int percentile) {
+        long expected = durations.get((int) Math.ceil(percentile / 100.0 * durations.size()) - 1);
+        MatcherAssert.assertThat(
+                actual.doubleValueIn(UnitLookup.NANOSECOND),
+                Matchers.closeTo(expected, expected * 0.01));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.reports;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import io.cryostat.core.reports.ReportAdmissionController.Permit;
+import io.cryostat.core.reports.ReportAdmissionController.ReportRejectedException;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class ReportAdmissionControllerTest {
+
+    @Test
+    void shouldQueueReportsBeyondConcurrencyLimit() {
+        ReportAdmissionController controller = new ReportAdmissionController(2, 1000, 10);
+        CompletableFuture<Permit> a = controller.acquire(10);
+        CompletableFuture<Permit> b = controller.acquire(10);
+        CompletableFuture<Permit> c = controller.acquire(10);
+
+        MatcherAssert.assertThat(a.isDone(), Matchers.is(true));
+        MatcherAssert.assertThat(b.isDone(), Matchers.is(true));
+        MatcherAssert.assertThat(c.isDone(), Matchers.is(false));
+        MatcherAssert.assertThat(controller.getActiveReports(), Matchers.equalTo(2));
+        MatcherAssert.assertThat(controller.getQueuedReports(), Matchers.equalTo(1));
+
+        a.join().release();
+
+        MatcherAssert.assertThat(c.isDone(), Matchers.is(true));
+        MatcherAssert.assertThat(controller.getActiveReports(), Matchers.equalTo(2));
+        MatcherAssert.assertThat(controller.getQueuedReports(), Matchers.equalTo(0));
+    }
+
+    @Test
+    void shouldQueueReportsBeyondByteBudget() {
+        ReportAdmissionController controller = new ReportAdmissionController(10, 100, 10);
+        CompletableFuture<Permit> a = controller.acquire(60);
+        CompletableFuture<Permit> b = controller.acquire(60);
+
+        MatcherAssert.assertThat(a.isDone(), Matchers.is(true));
+        MatcherAssert.assertThat(b.isDone(), Matchers.is(false));
+        MatcherAssert.assertThat(controller.getBytesInFlight(), Matchers.equalTo(60L));
+
+        a.join().release();
+
+        MatcherAssert.assertThat(b.isDone(), Matchers.is(true));
+        MatcherAssert.assertThat(controller.getBytesInFlight(), Matchers.equalTo(60L));
+    }
+
+    @Test
+    void shouldHoldChargedBytesUntilPermitIsReleased() {
+        ReportAdmissionController controller = new ReportAdmissionController(10, 100, 10);
+        CompletableFuture<Permit> a = controller.acquire(40);
+        a.join().charge(50);
+        CompletableFuture<Permit> b = controller.acquire(40);
+
+        MatcherAssert.assertThat(controller.getBytesInFlight(), Matchers.equalTo(90L));
+        MatcherAssert.assertThat(b.isDone(), Matchers.is(false));
+
+        a.join().release();
+        a.join().charge(50);
+
+        MatcherAssert.assertThat(b.isDone(), Matchers.is(true));
+        MatcherAssert.assertThat(controller.getBytesInFlight(), Matchers.equalTo(40L));
+    }
+
+    @Test
+    void shouldChargeDefaultSizeForUnknownSize() {
+        ReportAdmissionController controller = new ReportAdmissionController(4, 100, 10);
+        CompletableFuture<Permit> a = controller.acquire(-1);
+
+        MatcherAssert.assertThat(controller.getBytesInFlight(), Matchers.equalTo(25L));
+
+        a.join().release();
+        controller = new ReportAdmissionController(4, 100, 10, 70);
+        controller.acquire(-1);
+        CompletableFuture<Permit> b = controller.acquire(-1);
+
+        MatcherAssert.assertThat(controller.getBytesInFlight(), Matchers.equalTo(70L));
+        MatcherAssert.assertThat(b.isDone(), Matchers.is(false));
+    }
+
+    @Test
+    void shouldAdmitOversizedReportWhenIdle() {
+        ReportAdmissionController controller = new ReportAdmissionController(10, 100, 10);
+        CompletableFuture<Permit> small = controller.acquire(10);
+        CompletableFuture<Permit> huge = controller.acquire(1000);
+
+        MatcherAssert.assertThat(huge.isDone(), Matchers.is(false));
+
+        small.join().release();
+
+        MatcherAssert.assertThat(huge.isDone(), Matchers.is(true));
+    }
+
+    @Test
+    void shouldAdmitInArrivalOrder() {
+        ReportAdmissionController controller = new ReportAdmissionController(10, 100, 10);
+        CompletableFuture<Permit> a = controller.acquire(90);
+        CompletableFuture<Permit> large = controller.acquire(50);
+        CompletableFuture<Permit> small = controller.acquire(5);
+
+        // the small report would fit, but must not overtake the large one queued before it
+        MatcherAssert.assertThat(large.isDone(), Matchers.is(false));
+        MatcherAssert.assertThat(small.isDone(), Matchers.is(false));
+
+        a.join().release();
+
+        MatcherAssert.assertThat(large.isDone(), Matchers.is(true));
+        MatcherAssert.assertThat(small.isDone(), Matchers.is(true));
+    }
+
+    @Test
+    void shouldRejectReportsWhenQueueIsFull() {
+        ReportAdmissionController controller = new ReportAdmissionController(1, 100, 1);
+        controller.acquire(1);
+        controller.acquire(1);
+        CompletableFuture<Permit> rejected = controller.acquire(1);
+
+        ExecutionException ee = Assertions.assertThrows(ExecutionException.class, rejected::get);
+        MatcherAssert.assertThat(ee.getCause(), Matchers.instanceOf(ReportRejectedException.class));
+        MatcherAssert.assertThat(controller.getQueuedReports(), Matchers.equalTo(1));
+    }
+
+    @Test
+    void shouldSkipWithdrawnReports() {
+        ReportAdmissionController controller = new ReportAdmissionController(1, 100, 10);
+        CompletableFuture<Permit> a = controller.acquire(1);
+        CompletableFuture<Permit> withdrawn = controller.acquire(1);
+        CompletableFuture<Permit> c = controller.acquire(1);
+
+        withdrawn.cancel(false);
+        MatcherAssert.assertThat(controller.getQueuedReports(), Matchers.equalTo(1));
+
+        a.join().release();
+
+        MatcherAssert.assertThat(c.isDone(), Matchers.is(true));
+        MatcherAssert.assertThat(controller.getActiveReports(), Matchers.equalTo(1));
+    }
+
+    @Test
+    void shouldReleasePermitOnlyOnce() {
+        ReportAdmissionController controller = new ReportAdmissionController(1, 100, 10);
+        Permit permit = controller.acquire(10).join();
+        permit.release();
+        permit.release();
+
+        MatcherAssert.assertThat(controller.getActiveReports(), Matchers.equalTo(0));
+        MatcherAssert.assertThat(controller.getBytesInFlight(), Matchers.equalTo(0L));
+    }
+}
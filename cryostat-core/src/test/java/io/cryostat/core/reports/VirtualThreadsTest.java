@@ -0,0 +1,56 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.core.reports;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+
+class VirtualThreadsTest {
+
+    @Test
+    void shouldBeSupportedFromJava21() {
+        MatcherAssert.assertThat(
+                VirtualThreads.isSupported(), Matchers.equalTo(Runtime.version().feature() >= 21));
+    }
+
+    @Test
+    void shouldRunTasksOnVirtualThreadsWhenSupported() throws Exception {
+        Optional<ExecutorService> executor = VirtualThreads.newThreadPerTaskExecutor();
+        MatcherAssert.assertThat(
+                executor.isPresent(), Matchers.equalTo(VirtualThreads.isSupported()));
+        if (executor.isEmpty()) {
+            return;
+        }
+        try {
+            Boolean virtual =
+                    executor.get()
+                            .submit(
+                                    () ->
+                                            (Boolean)
+                                                    Thread.class
+                                                            .getMethod("isVirtual")
+                                                            .invoke(Thread.currentThread()))
+                            .get();
+            MatcherAssert.assertThat(virtual, Matchers.is(true));
+        } finally {
+            executor.get().shutdown();
+        }
+    }
+}
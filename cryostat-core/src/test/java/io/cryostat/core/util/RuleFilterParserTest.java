@@ -31,6 +31,7 @@ import org.openjdk.jmc.common.util.TypedPreference;
 import org.openjdk.jmc.flightrecorder.rules.IResult;
 import org.openjdk.jmc.flightrecorder.rules.IResultValueProvider;
 import org.openjdk.jmc.flightrecorder.rules.IRule;
+import org.openjdk.jmc.flightrecorder.rules.RuleRegistry;
 import org.openjdk.jmc.flightrecorder.rules.TypedResult;
 import org.openjdk.jmc.flightrecorder.rules.util.RulesToolkit.EventAvailability;
 
@@ -163,6 +164,41 @@ public class RuleFilterParserTest {
         MatcherAssert.assertThat(rules, Matchers.equalTo(List.of(rule2, rule4)));
     }
 
+    @Test
+    void shouldReuseCompiledFilterForEquivalentFilters() {
+        Predicate<IRule> first = parser.parse("Topic0, !Rule3");
+        Predicate<IRule> second = parser.parse("!rule3,topic0,Topic0");
+
+        MatcherAssert.assertThat(second, Matchers.sameInstance(first));
+        MatcherAssert.assertThat(
+                iRules.stream().filter(second).collect(Collectors.toList()),
+                Matchers.equalTo(List.of(rule0, rule4)));
+    }
+
+    @Test
+    void shouldRejectAllWithNegatedWildcard() {
+        Predicate<IRule> result = parser.parse("Rule0,!*");
+        Collection<IRule> rules = iRules.stream().filter(result).collect(Collectors.toList());
+
+        MatcherAssert.assertThat(rules, Matchers.empty());
+    }
+
+    @Test
+    void shouldFilterRegistryRulesConsistentlyWithUnindexedRules() {
+        RuleFilterParser registryParser = new RuleFilterParser();
+        Predicate<IRule> result = registryParser.parse("*,!GARBAGE_COLLECTION,!PID1Rule");
+
+        for (IRule rule : RuleRegistry.getRules()) {
+            // an equivalent rule which is not in the registry takes the unindexed path
+            TestRule copy = new TestRule(rule.getId(), rule.getTopic());
+            boolean expected =
+                    !rule.getTopic().equalsIgnoreCase("garbage_collection")
+                            && !rule.getId().equalsIgnoreCase("pid1rule");
+            MatcherAssert.assertThat(rule.getId(), result.test(rule), Matchers.is(expected));
+            MatcherAssert.assertThat(rule.getId(), result.test(copy), Matchers.is(expected));
+        }
+    }
+
     @ParameterizedTest
     @NullAndEmptySource
     void shouldAcceptAllWhenFilterBlank(String rawFilter) {
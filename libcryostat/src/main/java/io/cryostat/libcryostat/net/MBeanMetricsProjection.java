@@ -0,0 +1,120 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.libcryostat.net;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Selects the platform MBean attributes to read for an {@link MBeanMetrics}, so that callers which
+ * only need a few values do not pay for reading every attribute, such as a large SystemProperties
+ * map. Attributes are named as on the MBean, such as "Uptime" or "HeapMemoryUsage". Fields of the
+ * metrics which were not selected are left at their defaults.
+ */
+public final class MBeanMetricsProjection {
+
+    public enum Bean {
+        RUNTIME,
+        MEMORY,
+        THREAD,
+        OPERATING_SYSTEM,
+    }
+
+    /** Every attribute of every bean, and the JVM ID. */
+    public static final MBeanMetricsProjection ALL =
+            Builder.create()
+                    .all(Bean.RUNTIME)
+                    .all(Bean.MEMORY)
+                    .all(Bean.THREAD)
+                    .all(Bean.OPERATING_SYSTEM)
+                    .jvmId()
+                    .build();
+
+    // a bean mapped to null has all of its attributes selected
+    private final Map<Bean, Set<String>> attributes;
+    private final boolean jvmId;
+
+    private MBeanMetricsProjection(Builder builder) {
+        this.attributes = new EnumMap<>(builder.attributes);
+        this.jvmId = builder.jvmId;
+    }
+
+    /** Whether any attribute of the bean is selected. */
+    public boolean includes(Bean bean) {
+        return attributes.containsKey(bean);
+    }
+
+    public boolean includes(Bean bean, String attribute) {
+        if (!attributes.containsKey(bean)) {
+            return false;
+        }
+        Set<String> selected = attributes.get(bean);
+        return selected == null || selected.contains(attribute);
+    }
+
+    /**
+     * Whether the JVM ID is computed. This requires reading the Runtime attributes which identify
+     * the JVM, whether or not they are otherwise selected.
+     */
+    public boolean includesJvmId() {
+        return jvmId;
+    }
+
+    public static final class Builder {
+        private final Map<Bean, Set<String>> attributes = new EnumMap<>(Bean.class);
+        private boolean jvmId;
+
+        private Builder() {}
+
+        public static Builder create() {
+            return new Builder();
+        }
+
+        /** Select the named attributes of the bean, in addition to any already selected. */
+        public Builder attributes(Bean bean, String... names) {
+            Objects.requireNonNull(bean);
+            if (attributes.containsKey(bean) && attributes.get(bean) == null) {
+                return this;
+            }
+            Set<String> selected = new HashSet<>(Arrays.asList(names));
+            Set<String> previous = attributes.get(bean);
+            if (previous != null) {
+                selected.addAll(previous);
+            }
+            attributes.put(bean, Set.copyOf(selected));
+            return this;
+        }
+
+        /** Select every attribute of the bean. */
+        public Builder all(Bean bean) {
+            attributes.put(Objects.requireNonNull(bean), null);
+            return this;
+        }
+
+        public Builder jvmId() {
+            this.jvmId = true;
+            return this;
+        }
+
+        public MBeanMetricsProjection build() {
+            return new MBeanMetricsProjection(this);
+        }
+    }
+}